@@ -1,38 +1,53 @@
-import java.util.*;
-
 /**
  * LISP Association list
+ * Each function call gets its own activation frame holding its parameter
+ * values in an array.  References to a function's own parameters are resolved
+ * to a frame index when the function is defined (see Resolve), any other
+ * variable is looked up by name in the calling frames.
   * @author Keith Johansen
   * johansek@cse.ohio-state.edu
  */
 public class AList
 {
-    LinkedList<SExp> al;
+    private final static SExp[] NO_VALUES = new SExp[0];
+
+    final AList parent;   //the caller's frame
+    final SExp pars;      //parameter names, in frame order
+    final SExp[] values;  //parameter values
 
     public AList()
     {
-	al=new LinkedList<SExp>();
+	this(null, SExp.NIL, NO_VALUES);
     }
 
-	public AList(LinkedList<SExp> a)
+	AList(AList parent, SExp pars, SExp[] values)
 	{
-		this.al=a;
+		this.parent = parent;
+		this.pars = pars;
+		this.values = values;
 	}
 
     /**
-     * Get the value of a bound pair
-     * @param var The name to search for
+     * Get the value of a resolved parameter reference in this frame
+     * @param index The frame index
      * @return
      */
-	public SExp GetBindingPair(String var)
+	public SExp Get(int index)
 	{
-		Iterator itr = al.listIterator();
-		SExp binding;
+		return values[index];
+	}
 
-		while (itr.hasNext()){
-			binding = (SExp)itr.next();
-			if (binding.CAR().GetValue().equalsIgnoreCase(var))
-				return binding.CDR();
+    /**
+     * Get the value of a bound pair
+     * @param var The interned name to search for
+     * @return
+     */
+	public SExp GetBindingPair(SExp var)
+	{
+		for (AList frame = this; frame != null; frame = frame.parent)	{
+			int index = IndexOf(frame.pars, var);
+			if (index >= 0)
+				return frame.values[index];
 		}
         //not in alist
 		return null;
@@ -40,24 +55,129 @@ public class AList
 
     /**
      * Add binding pairs to the a list
-     * @param aList Current a list
+     * @param aList Current a list, the caller's frame
      * @param pars parameter names to add
      * @param values the values to bind
-     * @return new a list
+     * @return new frame, aList itself is not changed
      */
 	public static AList AddBindingPairs(AList aList, SExp pars, SExp values)
 	{
-		AList newList = new AList(aList.al);
+		return AddBindingPairs(aList, pars, values, values.Length());
+	}
 
-		SExp pars_t = pars;
-		SExp values_t = values;
+    /**
+     * Make a frame from evaluated arguments that have been counted
+     * @param aList Current a list, the caller's frame
+     * @param pars parameter names to add
+     * @param values the values to bind
+     * @param count the number of values
+     * @return new frame, aList itself is not changed
+     */
+	static AList AddBindingPairs(AList aList, SExp pars, SExp values, int count)
+	{
+		SExp[] frame = new SExp[count];
 
-		while (!pars_t.IsNull() && !values_t.IsNull())	{
-			newList.al.addFirst(SExp.CONS(pars_t.CAR(), values_t.CAR()));
-			pars_t = pars_t.CDR();
+		SExp values_t = values;
+		for (int i = 0; i < count; i++)	{
+			frame[i] = values_t.CAR();
 			values_t = values_t.CDR();
 		}
-		return newList;
+		return new AList(aList, pars, frame);
 	}
-}
 
+    /**
+     * Find the parent for a new frame, skipping the calling frames whose names
+     * the new frame shadows completely since no lookup can get past it to them.
+     * A function calling itself then keeps one frame, not one per call
+     * @param caller The caller's frame
+     * @param pars The parameter names of the new frame
+     * @return The frame to chain the new frame to
+     */
+	static AList Trim(AList caller, SExp pars)
+	{
+		AList frame = caller;
+		while (frame.parent != null && Shadows(pars, frame.pars))
+			frame = frame.parent;
+		return frame;
+	}
+
+	private static boolean Shadows(SExp pars, SExp names)
+	{
+		for (SExp p = names; !p.IsAtomic(); p = p.CDR())	{
+			if (IndexOf(pars, p.CAR()) < 0)
+				return false;
+		}
+		return true;
+	}
+
+    /**
+     * Resolve the references a function body makes to its own parameters
+     * to frame indexes, done once when the function is defined
+     * @param exp The expression to resolve
+     * @param pars The parameter names of the function
+     * @return exp with each evaluated parameter reference replaced by a LocalRef
+     */
+	public static SExp Resolve(SExp exp, SExp pars)
+	{
+		if (exp instanceof Symbol)	{
+			int index = IndexOf(pars, exp);
+			if (index >= 0 && exp != SExp.T && exp != SExp.NIL)
+				return new LocalRef((Symbol)exp, index);
+			return exp;
+		}
+		if (exp.IsAtomic())
+			return exp;
+
+		//quoted data is never evaluated, the function name is not a variable
+		if (exp.CAR() == Interpreter.QUOTE || exp.CAR() == Interpreter.DEFUN)
+			return exp;
+		if (exp.CAR() == Interpreter.COND)	{
+			SExp clauses = exp.CDR();
+			SExp resolved = ResolveClauses(clauses, pars);
+			return resolved == clauses ? exp : SExp.Pair(exp.CAR(), resolved);
+		}
+		SExp args = exp.CDR();
+		SExp resolved = ResolveList(args, pars);
+		//calls of user functions get an inline cache for the definition
+		if (exp.CAR() instanceof Symbol && Primitive.Lookup(exp.CAR()) == null)
+			return new CallSite(exp.CAR(), resolved);
+		return resolved == args ? exp : SExp.Pair(exp.CAR(), resolved);
+	}
+
+	private static SExp ResolveClauses(SExp clauses, SExp pars)
+	{
+		if (clauses.IsAtomic())
+			return clauses;
+		SExp car = ResolveList(clauses.CAR(), pars);
+		SExp cdr = ResolveClauses(clauses.CDR(), pars);
+		return (car == clauses.CAR() && cdr == clauses.CDR()) ? clauses : SExp.Pair(car, cdr);
+	}
+
+	private static SExp ResolveList(SExp l, SExp pars)
+	{
+		if (l.IsAtomic())
+			return l;
+		SExp car = Resolve(l.CAR(), pars);
+		SExp cdr = ResolveList(l.CDR(), pars);
+		return (car == l.CAR() && cdr == l.CDR()) ? l : SExp.Pair(car, cdr);
+	}
+
+    /**
+     * Find a name in a parameter list, the last one wins like it did when
+     * bindings were pushed on the front of a list
+     * @param pars The parameter names
+     * @param var The name
+     * @return The frame index, or -1
+     */
+	static int IndexOf(SExp pars, SExp var)
+	{
+		int found = -1;
+		int i = 0;
+		for (SExp p = pars; !p.IsAtomic(); p = p.CDR())	{
+			if (p.CAR() == var)
+				found = i;
+			i++;
+		}
+		return found;
+	}
+}
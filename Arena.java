@@ -0,0 +1,489 @@
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+/**
+ * LISP cons arena, turned on by running java with -Dlisp.arena=true.
+ * Each session gets an arena, and the CONS builtin run on the session's
+ * thread makes its cells there instead of as Cons objects: a cell is a slot
+ * in a car array and a cdr array of longs, each slot a fixnum or the index of
+ * another cell, tagged in its low bits, or the index of any other atom (or a
+ * heap cons) in a table of objects.  The garbage collector sees two arrays
+ * of longs however many cells there are, instead of an object per cell.
+ * A Cell is the S expression for a cell, a handle made when CAR or CDR
+ * reaches it and dropped as soon as it is not needed; the last few made are
+ * kept in a small table indexed by cell, so walking a list again reuses them.
+ * Cells no handle can reach are reclaimed by copying the cells that are
+ * reached to the front of new arrays and moving the handles to the copies.
+ * Interpreter.Evaluate calls Collect between top level forms once the arena
+ * has doubled, with the memo table as the only roots, so a value an Evaluate
+ * returned is good until the next one starts.  Within a form, the first time
+ * the arena is full and has doubled, CONS pins the cells made so far, which
+ * stay where they are until the form ends, and from then on registers every
+ * handle it makes on a later cell weakly.  The next time, it collects the
+ * cells after the pinned ones, with the pinned cells, the memo table and the
+ * registered handles a System.gc has not cleared as roots.  That may keep
+ * some garbage, never a live cell.  If memory runs out collecting or the
+ * arena still cannot grow, CONS fails with a LISP error rather than the JVM's.
+ * Lists the interpreter builds for itself (argument lists, rewritten
+ * function bodies) and lists read by SExp.INPUT, which compiled code holds
+ * on to, stay on the heap.
+ */
+final class Arena
+{
+    final static boolean ON = Boolean.getBoolean("lisp.arena");
+
+    //what the low two bits of a slot say the rest holds
+    private final static int CELL = 0;    //the index of a cell
+    private final static int FIXNUM = 1;  //a fixnum's value
+    private final static int OBJECT = 2;  //the index of anything else in objects
+
+    private final static long MIN_FIXNUM = Long.MIN_VALUE >> 2;
+    private final static long MAX_FIXNUM = Long.MAX_VALUE >> 2;
+    private final static long NIL = (0L << 2) | OBJECT;  //NIL is always the first object
+
+    private final static int INITIAL_CELLS = 1024;
+    //the longest array the JVM will make
+    private final static int MAX_CELLS = Integer.MAX_VALUE - 8;
+    //new cells before a collection is worth its while, at least
+    private final static int MIN_GROWTH = 1 << 20;
+    //handles kept for reuse, a power of two
+    private final static int RECENT = 256;
+    //registered handles before the cleared ones are dropped, at least
+    private final static int MIN_HANDLES = 1024;
+
+    //the arena of the session running on each thread
+    private final static ThreadLocal<Arena> current = new ThreadLocal<Arena>();
+
+    /**
+     * A handle on a cell of an arena, it behaves as a cons
+     */
+    static final class Cell extends SExp
+    {
+        final Arena arena;
+        int index;  //moved by Compact
+        int moves;  //the collection that last moved it
+
+        Cell(Arena arena, int index)
+        {
+            this.arena = arena;
+            this.index = index;
+        }
+    }
+
+    private long[] cars = new long[INITIAL_CELLS];
+    private long[] cdrs = new long[INITIAL_CELLS];
+    private int used;
+    private int live;  //the cells the last collection kept
+    private int collections;
+
+    //the cells no collection within this form moves, or -1 while handles are not registered
+    private int pinned = -1;
+    //the handles on cells after the pinned ones, the roots of a collection within a form
+    private final ArrayList<WeakReference<Cell>> handles = new ArrayList<WeakReference<Cell>>();
+    private int pruneAt = MIN_HANDLES;
+    private final Cell[] recent = new Cell[RECENT];
+    private Memo memo;  //the session's, for a collection within a form
+
+    private SExp[] objects = new SExp[64];
+    private int objectCount;
+    private IdentityHashMap<SExp, Integer> objectIndex = new IdentityHashMap<SExp, Integer>();
+
+    Arena()
+    {
+        objects[objectCount++] = SExp.NIL;
+        objectIndex.put(SExp.NIL, 0);
+    }
+
+    /**
+     * Get the arena of the session running on this thread
+     * @return The arena, or null if there is none
+     */
+    static Arena Current()
+    {
+        return current.get();
+    }
+
+    /**
+     * Make an arena the one CONS uses on this thread
+     * @param arena The arena, or null for none
+     * @return The arena that was in use, to put back
+     */
+    static Arena Bind(Arena arena)
+    {
+        Arena previous = current.get();
+        current.set(arena);
+        return previous;
+    }
+
+    /**
+     * LISP built in CONS, with the cell in the arena
+     * @param car The car
+     * @param cdr The cdr
+     * @return The handle of the new cell
+     * @throws java.lang.Exception
+     */
+    Cell CONS(SExp car, SExp cdr) throws Exception
+    {
+        if (used == cars.length)
+        {
+            if (used - live >= Math.max(MIN_GROWTH, live))
+            {
+                if (pinned < 0)
+                {
+                    //a handle made before now may be anywhere, keep its cell in place
+                    pinned = used;
+                } else
+                {
+                    //car and cdr are handles on this thread's stack, so they are roots too
+                    Compact(Roots(), pinned);
+                }
+            }
+            if (2L * used > cars.length)
+            {
+                Grow();
+            }
+        }
+        cars[used] = Slot(car);
+        cdrs[used] = Slot(cdr);
+        return Handle(used++);
+    }
+
+    /**
+     * Double the arrays, or fail the form if they cannot be
+     */
+    private void Grow() throws Exception
+    {
+        if (cars.length == MAX_CELLS)
+        {
+            throw new Exception("ERROR IN CONS: the arena is full at " + MAX_CELLS + " cells");
+        }
+        int size = (int) Math.min(2L * cars.length, MAX_CELLS);
+        try
+        {
+            long[] grown = Arrays.copyOf(cars, size);
+            cdrs = Arrays.copyOf(cdrs, size);
+            cars = grown;
+        } catch (OutOfMemoryError e)
+        {
+            throw new Exception("ERROR IN CONS: out of memory for " + size + " cells");
+        }
+    }
+
+    /**
+     * Get a handle on a cell, the one made last for it if it is still in
+     * recent, else a new one, registered if a collection may move the cell
+     */
+    private Cell Handle(int index)
+    {
+        int i = index & (RECENT - 1);
+        Cell c = recent[i];
+        if (c != null && c.index == index)
+        {
+            return c;
+        }
+        c = new Cell(this, index);
+        recent[i] = c;
+        if (pinned < 0 || index < pinned)
+        {
+            return c;
+        }
+        if (handles.size() == pruneAt)
+        {
+            handles.removeIf(h -> h.get() == null);
+            pruneAt = Math.max(MIN_HANDLES, 2 * handles.size());
+        }
+        handles.add(new WeakReference<Cell>(c));
+        return c;
+    }
+
+    /**
+     * Get what a collection within a form keeps: the memo table's values
+     * and every handle that may still be used
+     */
+    private List<SExp> Roots() throws Exception
+    {
+        System.gc();  //so the handles no longer used are cleared
+        handles.removeIf(h -> h.get() == null);
+        try
+        {
+            ArrayList<SExp> roots = new ArrayList<SExp>(handles.size());
+            if (memo != null)
+            {
+                roots.addAll(memo.Values());
+            }
+            for (WeakReference<Cell> h : handles)
+            {
+                Cell c = h.get();
+                if (c != null)
+                {
+                    roots.add(c);
+                }
+            }
+            return roots;
+        } catch (OutOfMemoryError e)
+        {
+            throw new Exception("ERROR IN CONS: out of memory to collect " + used + " cells");
+        }
+    }
+
+    /**
+     * Get the car of a cell
+     * @param index The cell
+     * @return The car
+     */
+    SExp Car(int index)
+    {
+        return Value(cars[index]);
+    }
+
+    /**
+     * Get the cdr of a cell
+     * @param index The cell
+     * @return The cdr
+     */
+    SExp Cdr(int index)
+    {
+        return Value(cdrs[index]);
+    }
+
+    private long Slot(SExp s) throws Exception
+    {
+        if (s == SExp.NIL)
+        {
+            return NIL;
+        }
+        if (s instanceof Cell && ((Cell) s).arena == this)
+        {
+            return (long) ((Cell) s).index << 2 | CELL;
+        }
+        if (s instanceof Fixnum)
+        {
+            long value = ((Fixnum) s).value;
+            if (value >= MIN_FIXNUM && value <= MAX_FIXNUM)
+            {
+                return value << 2 | FIXNUM;
+            }
+        }
+        return (long) Intern(s) << 2 | OBJECT;
+    }
+
+    private SExp Value(long slot)
+    {
+        switch ((int) slot & 3)
+        {
+            case CELL:
+                return Handle((int) (slot >>> 2));
+            case FIXNUM:
+                return Fixnum.ValueOf(slot >> 2);
+            default:
+                return objects[(int) (slot >>> 2)];
+        }
+    }
+
+    /**
+     * Get the index of an object in the table, adding it if it is not there
+     */
+    private int Intern(SExp s) throws Exception
+    {
+        Integer index = objectIndex.get(s);
+        if (index == null)
+        {
+            if (objectCount == objects.length)
+            {
+                if (objectCount == MAX_CELLS)
+                {
+                    throw new Exception("ERROR IN CONS: the arena is full at " + MAX_CELLS + " objects");
+                }
+                objects = Arrays.copyOf(objects, (int) Math.min(2L * objectCount, MAX_CELLS));
+            }
+            index = objectCount;
+            objects[objectCount++] = s;
+            objectIndex.put(s, index);
+        }
+        return index;
+    }
+
+    /**
+     * Reclaim the cells the memo table cannot reach, if the arena has grown
+     * enough since the last time.  No other handle may be used afterwards
+     * @param memo The session's memo table, or null
+     * @throws java.lang.Exception
+     */
+    void Collect(Memo memo) throws Exception
+    {
+        //no handle made before is used again
+        this.memo = memo;
+        pinned = -1;
+        handles.clear();
+        pruneAt = MIN_HANDLES;
+        if (used - live < Math.max(MIN_GROWTH, live))
+        {
+            return;
+        }
+        Arrays.fill(recent, null);
+        Compact(memo == null ? Collections.<SExp>emptyList() : memo.Values(), 0);
+    }
+
+    /**
+     * Copy the cells the roots reach to the front of new arrays, in the order
+     * they are reached, and move the roots' handles to the copies.  If memory
+     * runs out while copying, nothing has changed
+     * @param roots Where the live handles are found
+     * @param pin The cells at the front that stay where they are, and are roots
+     */
+    private void Compact(Collection<SExp> roots, int pin) throws Exception
+    {
+        long[] oldCars = cars;
+        long[] oldCdrs = cdrs;
+        SExp[] oldObjects = objects;
+        int oldObjectCount = objectCount;
+        IdentityHashMap<SExp, Integer> oldObjectIndex = objectIndex;
+        int[] forward;  //the new index of each cell copied, plus one
+        ArrayList<Cell> moved;  //the handles to move once everything is copied
+        try
+        {
+            //as many cells as were kept last time, and room to grow, if they fit
+            int room = (int) Math.min(oldCars.length, Math.max(INITIAL_CELLS, 2L * Math.max(pin, live)));
+            cars = new long[room];
+            cdrs = new long[room];
+            forward = new int[used];
+            moved = new ArrayList<Cell>();
+            objects = new SExp[64];
+            objectCount = 0;
+            objectIndex = new IdentityHashMap<SExp, Integer>();
+            Intern(SExp.NIL);
+
+            System.arraycopy(oldCars, 0, cars, 0, pin);
+            System.arraycopy(oldCdrs, 0, cdrs, 0, pin);
+            for (int index = 0; index < pin; index++)
+            {
+                forward[index] = index + 1;
+            }
+            int copied = pin;
+            int scanned = 0;
+
+            //heap S expressions reached, looked through for handles
+            ArrayDeque<SExp> heap = new ArrayDeque<SExp>(roots);
+            Set<SExp> seen = Collections.newSetFromMap(new IdentityHashMap<SExp, Boolean>());
+            while (!heap.isEmpty() || scanned < copied)
+            {
+                if (!heap.isEmpty())
+                {
+                    SExp s = heap.pop();
+                    if (s == null || s.IsAtomic())
+                    {
+                        continue;
+                    }
+                    if (s instanceof Cell)
+                    {
+                        Cell c = (Cell) s;
+                        if (c.arena == this)
+                        {
+                            if (forward[c.index] == 0)
+                            {
+                                Room(copied);
+                                cars[copied] = oldCars[c.index];
+                                cdrs[copied] = oldCdrs[c.index];
+                                forward[c.index] = ++copied;
+                            }
+                            moved.add(c);
+                        }
+                    } else if (seen.add(s))
+                    {
+                        heap.push(s.CDR());
+                        heap.push(s.CAR());
+                    }
+                    continue;
+                }
+
+                //the slots of a copied cell still say where things were, move them
+                for (int half = 0; half < 2; half++)
+                {
+                    long slot = half == 0 ? cars[scanned] : cdrs[scanned];
+                    int old = (int) (slot >>> 2);
+                    switch ((int) slot & 3)
+                    {
+                        case CELL:
+                            if (forward[old] == 0)
+                            {
+                                Room(copied);
+                                cars[copied] = oldCars[old];
+                                cdrs[copied] = oldCdrs[old];
+                                forward[old] = ++copied;
+                            }
+                            slot = (long) (forward[old] - 1) << 2 | CELL;
+                            break;
+                        case OBJECT:
+                            SExp s = oldObjects[old];
+                            slot = (long) Intern(s) << 2 | OBJECT;
+                            if (s != null && !s.IsAtomic())
+                            {
+                                heap.push(s);  //a heap cons can hold handles
+                            }
+                            break;
+                    }
+                    if (half == 0)
+                    {
+                        cars[scanned] = slot;
+                    } else
+                    {
+                        cdrs[scanned] = slot;
+                    }
+                }
+                scanned++;
+            }
+
+            if (copied < cars.length / 4 && cars.length > INITIAL_CELLS)
+            {
+                int size = Math.max(INITIAL_CELLS, copied * 2);
+                cars = Arrays.copyOf(cars, size);
+                cdrs = Arrays.copyOf(cdrs, size);
+            }
+            used = copied;
+            live = copied;
+        } catch (OutOfMemoryError e)
+        {
+            cars = oldCars;
+            cdrs = oldCdrs;
+            objects = oldObjects;
+            objectCount = oldObjectCount;
+            objectIndex = oldObjectIndex;
+            throw new Exception("ERROR IN CONS: out of memory to collect " + used + " cells");
+        }
+
+        //a handle may be reached more than once, the stamp says it has moved
+        collections++;
+        for (Cell c : moved)
+        {
+            if (c.moves != collections)
+            {
+                c.index = forward[c.index] - 1;
+                c.moves = collections;
+            }
+        }
+    }
+
+    /**
+     * Make room in the new arrays for the cell a collection copies next
+     * @param copied The cells copied so far
+     */
+    private void Room(int copied)
+    {
+        if (copied == cars.length)
+        {
+            int size = (int) Math.min(2L * copied, MAX_CELLS);
+            cars = Arrays.copyOf(cars, size);
+            cdrs = Arrays.copyOf(cdrs, size);
+        }
+    }
+
+    /**
+     * Describe the arena, for -stats
+     * @return One line
+     */
+    String Stats()
+    {
+        return "arena: " + used + " cells, " + live + " kept by the last of " + collections
+                + " collections, " + objectCount + " objects";
+    }
+}
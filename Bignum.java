@@ -0,0 +1,38 @@
+import java.math.BigInteger;
+
+/**
+ * LISP integer atom that does not fit in a long.
+ * Arithmetic moves here on overflow; results that fit again go back to a Fixnum.
+ */
+public final class Bignum extends SExp
+{
+    final BigInteger value;
+
+    private Bignum(BigInteger value)
+    {
+        this.value = value;
+    }
+
+    /**
+     * Get the integer atom for a value, a Fixnum when it fits in a long
+     * @param value The value
+     * @return The integer atom
+     */
+    public static SExp ValueOf(BigInteger value)
+    {
+        if (value.bitLength() < 64)
+        {
+            return Fixnum.ValueOf(value.longValue());
+        }
+        return new Bignum(value);
+    }
+
+    /**
+     * Get the printed value
+     * @return The value in decimal
+     */
+    public String GetValue()
+    {
+        return value.toString();
+    }
+}
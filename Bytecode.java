@@ -0,0 +1,217 @@
+import java.util.*;
+
+/**
+ * LISP compiled code for the VM engine.
+ * A flat instruction array (opcodes with their operands inline) and a
+ * constant table.  Compile translates the Node tree NodeCompiler produced,
+ * so both engines share the analysis of what each form means.
+ */
+public final class Bytecode
+{
+    //opcodes, operands follow in the code array
+    final static int CONST = 0;       //k: push constants[k]
+    final static int LOCAL = 1;       //i: push parameter i of the current frame
+    final static int DYNAMIC = 2;     //k: push the binding of the free variable constants[k]
+    final static int FAIL = 3;        //k: throw an error with message constants[k]
+    final static int INTERPRET = 4;   //k: push EVAL of the form constants[k]
+    final static int JUMP = 5;        //t: continue at t
+    final static int JUMPIFNOT = 6;   //t: pop a conditional, continue at t unless it is T
+    final static int CONDFAIL = 7;    //throw the error for a COND with no true conditional
+    final static int PRIM1 = 8;       //k: pop one argument, push the builtin constants[k] applied to it
+    final static int PRIM2 = 9;       //k: pop two arguments, push the builtin constants[k] applied to them
+    final static int PRIMN = 10;      //k n: pop n arguments, push the builtin constants[k] applied to them
+    final static int FUNCTION = 11;   //k: push the definition the call site constants[k] calls, or fail
+    final static int CALL = 12;       //n: call the function below the n arguments on the stack
+    final static int RETURN = 13;     //return the top of the stack
+    final static int CAR = 14;        //the most common builtins, without the virtual call
+    final static int CDR = 15;
+    final static int CONS = 16;
+    final static int EQ = 17;
+    final static int NULL = 18;
+    final static int PLUS = 19;
+    final static int MINUS = 20;
+    final static int LESS = 21;
+    final static int GREATER = 22;
+
+    final int[] code;
+    final Object[] constants;
+    final SExp pars;      //names of the frame's parameters, for free variable lookups
+    final int arity;
+    final int maxStack;   //most stack slots the code uses above its parameters
+
+    private Bytecode(int[] code, Object[] constants, SExp pars, int maxStack)
+    {
+        this.code = code;
+        this.constants = constants;
+        this.pars = pars;
+        this.arity = pars.Length();
+        this.maxStack = maxStack;
+    }
+
+    /**
+     * Compile a function body or top level form
+     * @param node The compiled form
+     * @param pars The parameter names, NIL for a top level form
+     * @return The code
+     */
+    public static Bytecode Compile(Node node, SExp pars)
+    {
+        Assembler a = new Assembler();
+        a.Emit(node);
+        a.Op(RETURN);
+        return new Bytecode(Arrays.copyOf(a.code, a.length), a.constants.toArray(), pars, a.maxDepth);
+    }
+
+    /**
+     * Translates Nodes to instructions, keeping track of the stack depth
+     */
+    private static final class Assembler
+    {
+        int[] code = new int[64];
+        int length;
+        ArrayList<Object> constants = new ArrayList<Object>();
+        int depth;
+        int maxDepth;
+
+        void Emit(Node node)
+        {
+            if (node instanceof Node.Constant)
+            {
+                Op(CONST, Constant(((Node.Constant) node).value));
+                Push(1);
+            } else if (node instanceof Node.Local)
+            {
+                Op(LOCAL, ((Node.Local) node).index);
+                Push(1);
+            } else if (node instanceof Node.Dynamic)
+            {
+                Op(DYNAMIC, Constant(((Node.Dynamic) node).name));
+                Push(1);
+            } else if (node instanceof Node.Fail)
+            {
+                Op(FAIL, Constant(((Node.Fail) node).message));
+                Push(1);  //never pushes, but keeps the depth the same as any other expression
+            } else if (node instanceof Node.Interpret)
+            {
+                Op(INTERPRET, Constant(((Node.Interpret) node).form));
+                Push(1);
+            } else if (node instanceof Node.Cond)
+            {
+                Cond((Node.Cond) node);
+            } else if (node instanceof Node.Primitive1)
+            {
+                Node.Primitive1 p = (Node.Primitive1) node;
+                Emit(p.a);
+                Builtin(p.p, PRIM1);
+            } else if (node instanceof Node.Primitive2)
+            {
+                Node.Primitive2 p = (Node.Primitive2) node;
+                Emit(p.a);
+                Emit(p.b);
+                Builtin(p.p, PRIM2);
+                Push(-1);
+            } else if (node instanceof Node.PrimitiveN)
+            {
+                Node.PrimitiveN p = (Node.PrimitiveN) node;
+                for (Node arg : p.args)
+                {
+                    Emit(arg);
+                }
+                Op(PRIMN, Constant(p.p), p.args.length);
+                Push(1 - p.args.length);
+            } else
+            {
+                Node.Call c = (Node.Call) node;
+                Op(FUNCTION, Constant(c.site));
+                Push(1);
+                for (Node arg : c.args)
+                {
+                    Emit(arg);
+                }
+                Op(CALL, c.args.length);
+                Push(-c.args.length);
+            }
+        }
+
+        void Cond(Node.Cond c)
+        {
+            int[] ends = new int[c.tests.length];
+            for (int i = 0; i < c.tests.length; i++)
+            {
+                Emit(c.tests[i]);
+                Op(JUMPIFNOT, 0);
+                Push(-1);
+                int next = length - 1;
+                Emit(c.exps[i]);
+                Push(-1);  //only one branch leaves its value
+                Op(JUMP, 0);
+                ends[i] = length - 1;
+                code[next] = length;
+            }
+            Op(CONDFAIL);
+            Push(1);
+            for (int end : ends)
+            {
+                code[end] = length;
+            }
+        }
+
+        /**
+         * Emit a builtin call, with its own opcode if it has one
+         */
+        void Builtin(Primitive p, int generic)
+        {
+            int op = Opcode(p);
+            if (op < 0)
+            {
+                Op(generic, Constant(p));
+            } else
+            {
+                Op(op);
+            }
+        }
+
+        int Opcode(Primitive p)
+        {
+            if (p == Primitive.CAR) return CAR;
+            if (p == Primitive.CDR) return CDR;
+            if (p == Primitive.NULL) return NULL;
+            if (p == Primitive.CONS) return CONS;
+            if (p == Primitive.EQ) return EQ;
+            if (p == Primitive.PLUS) return PLUS;
+            if (p == Primitive.MINUS) return MINUS;
+            if (p == Primitive.LESS) return LESS;
+            if (p == Primitive.GREATER) return GREATER;
+            return -1;
+        }
+
+        int Constant(Object value)
+        {
+            int k = constants.indexOf(value);
+            if (k < 0)
+            {
+                constants.add(value);
+                k = constants.size() - 1;
+            }
+            return k;
+        }
+
+        void Push(int n)
+        {
+            depth += n;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+
+        void Op(int... words)
+        {
+            if (length + words.length > code.length)
+            {
+                code = Arrays.copyOf(code, code.length * 2);
+            }
+            for (int w : words)
+            {
+                code[length++] = w;
+            }
+        }
+    }
+}
@@ -0,0 +1,294 @@
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * LISP continuation machine, evaluates S expressions like EVAL does but keeps
+ * its control stack on the heap.
+ * The machine is either evaluating an expression in an environment (the
+ * control and the environment) or handing a value to the innermost pending
+ * continuation: a COND waiting for a test, or a call waiting for an argument
+ * (or, with the Profiler on or calls recorded for Events, for its body).
+ * Nothing recurses in Java, so nesting depth is limited by the heap, not the
+ * thread's stack.
+ */
+public final class CEK
+{
+    //continuation kinds
+    private final static int TEST = 0;  //a COND clause's test is being evaluated
+    private final static int ARG = 1;   //an argument of a call is being evaluated
+    private final static int BODY = 2;  //a user function's body is being evaluated, for the Profiler and Events
+
+    //the deepest continuation stack of any run
+    private final static AtomicInteger peak = new AtomicInteger();
+
+    /**
+     * A pending continuation, frames are reused as the stack grows and shrinks
+     */
+    private static final class Frame
+    {
+        int kind;
+        AList env;
+        SExp rest;         //the clauses left to test, or the arguments left to evaluate
+        Primitive p;       //the builtin being called
+        Function def;      //or the user function
+        SExp[] values;     //the evaluated arguments
+        int count;
+        Events.Call event; //the call a body is the value of, with -Dlisp.jfr.calls=true
+    }
+
+    private final DList dList;
+    private Frame[] stack = new Frame[64];
+    private int depth;
+    private int deepest;
+
+    public CEK(DList dList)
+    {
+        this.dList = dList;
+    }
+
+    /**
+     * Get the deepest the continuation stack has been
+     * @return The number of pending continuations
+     */
+    public static int PeakDepth()
+    {
+        return peak.get();
+    }
+
+    /**
+     * Evaluate an expression, it gives the same value or error as EVAL
+     * @param s The expression
+     * @param aList The association list to evaluate it in
+     * @return The value
+     * @throws java.lang.Exception
+     */
+    public SExp Run(SExp s, AList aList) throws Exception
+    {
+        depth = 0;
+        deepest = 0;
+        try
+        {
+            return Loop(s, aList);
+        } finally
+        {
+            peak.accumulateAndGet(deepest, Math::max);
+            for (int i = 0; i < stack.length && stack[i] != null; i++)
+            {
+                Clear(stack[i]);
+            }
+        }
+    }
+
+    private SExp Loop(SExp s, AList env) throws Exception
+    {
+        while (true)
+        {
+            //evaluate s in env until there is a value, or a continuation to wait on
+            SExp value = null;
+            boolean ready = false;  //value can be null, see QUOTE
+            if (s.IsAtomic())
+            {
+                value = Atom(s, env);
+                ready = true;
+            } else if (!s.CAR().IsAtomic())
+            {
+                throw new Exception("ERROR IN EVAL: '" + s.CAR().toString() + "' is an illegal function name");
+            } else if (s.CAR() == Interpreter.COND)
+            {
+                Interpreter.ConditionalValidation(s);
+                SExp clauses = s.CDR();
+                if (clauses.IsNull())
+                {
+                    throw new Exception("ERROR IN EVCON: All conditionals cannot be null");
+                }
+                Frame k = Push(TEST, env);
+                k.rest = clauses;
+                s = clauses.CAR().CAR();
+            } else if (s.CAR() == Interpreter.QUOTE)
+            {
+                Interpreter.CheckParamCount("QUOTE", s.CDR(), 1);
+                value = s.CDR().CAR();
+                ready = true;
+            } else if (s.CAR() == Interpreter.DEFUN)
+            {
+                //only the top level form may be a DEFUN and EVAL handles those
+                throw new Exception("ERROR IN EVAL: No Nested Defuns allowed");
+            } else
+            {
+                SExp f = s.CAR();
+                Primitive p = Primitive.Lookup(f);
+                Function def = null;
+                if (p == null)
+                {
+                    def = s instanceof CallSite ? ((CallSite) s).Lookup(dList) : dList.GetFunctionDefinition(f);
+                    if (def == null)
+                    {
+                        throw new Exception("ERROR IN EVAL: '" + f.GetValue() + "' is not defined");
+                    }
+                }
+                int n = s.CDR().ProperLength();
+                if (n <= 0)
+                {
+                    throw new Exception("ERROR IN EVAL: '" + f.GetValue() + "' has bad arguments");
+                }
+
+                Frame k = Push(ARG, env);
+                k.rest = s.CDR();
+                k.p = p;
+                k.def = def;
+                k.values = new SExp[n];
+                s = k.rest.CAR();
+            }
+
+            //hand the value to the continuations until one has more to evaluate
+            while (ready)
+            {
+                if (depth == 0)
+                {
+                    return value;
+                }
+                Frame k = stack[depth - 1];
+                env = k.env;
+                if (k.kind == BODY)
+                {
+                    if (Profiler.ON)
+                    {
+                        Profiler.Exit();
+                    }
+                    if (Events.CALLS)
+                    {
+                        Events.End(k.event);
+                    }
+                    Pop();
+                } else if (k.kind == TEST)
+                {
+                    if (Interpreter.IsTrue(value))
+                    {
+                        //the branch is the COND's value, its frame is done
+                        s = k.rest.CAR().CDR().CAR();
+                        Pop();
+                    } else
+                    {
+                        k.rest = k.rest.CDR();
+                        if (k.rest.IsNull())
+                        {
+                            throw new Exception("ERROR IN EVCON: All conditionals cannot be null");
+                        }
+                        s = k.rest.CAR().CAR();
+                    }
+                    ready = false;
+                } else
+                {
+                    k.values[k.count++] = value;
+                    k.rest = k.rest.CDR();
+                    if (!k.rest.IsNull())
+                    {
+                        s = k.rest.CAR();
+                        ready = false;
+                    } else if (k.p != null)
+                    {
+                        Primitive p = k.p;
+                        SExp x = SExp.NIL;
+                        for (int i = k.values.length - 1; i >= 0; i--)
+                        {
+                            x = SExp.Pair(k.values[i], x);
+                        }
+                        Pop();
+                        value = p.Apply(x);
+                    } else
+                    {
+                        //the body is the call's value, the call's frame is done
+                        Interpreter.Poll();
+                        Function def = k.def;
+                        SExp[] values = k.values;
+                        Pop();
+                        if (values.length != def.arity)
+                        {
+                            throw Interpreter.ParamCountError(def.name.GetValue(), def.arity, values.length);
+                        }
+                        env = new AList(AList.Trim(env, def.pars), def.pars, values);
+                        if (Profiler.ON || Events.CALLS)
+                        {
+                            //a call in tail position replaces its caller's body
+                            if (depth > 0 && stack[depth - 1].kind == BODY)
+                            {
+                                if (Profiler.ON)
+                                {
+                                    Profiler.Exit();
+                                }
+                            } else
+                            {
+                                Push(BODY, env).event = Events.CALLS ? Events.Begin(def) : null;
+                            }
+                            if (Profiler.ON)
+                            {
+                                Profiler.Enter(def);
+                            }
+                        }
+                        s = def.body;
+                        ready = false;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Evaluate an atom, as EVAL does
+     */
+    private static SExp Atom(SExp s, AList env) throws Exception
+    {
+        if (s instanceof LocalRef)
+        {
+            return env.Get(((LocalRef) s).index);
+        }
+        if (s == SExp.NIL || s == SExp.T || s.IsInteger())
+        {
+            return s;
+        }
+        if (!Interpreter.IsValidAtom(s))
+        {
+            throw new Exception("ERROR IN EVAL: '" + s.GetValue() + "' is not a valid identifier");
+        }
+        SExp binding = env.GetBindingPair(s);
+        if (binding == null)
+        {
+            throw new Exception("ERROR IN EVAL: " + s.GetValue() + " is not bound");
+        }
+        return binding;
+    }
+
+    private Frame Push(int kind, AList env)
+    {
+        if (depth == stack.length)
+        {
+            stack = Arrays.copyOf(stack, depth * 2);
+        }
+        Frame k = stack[depth];
+        if (k == null)
+        {
+            k = stack[depth] = new Frame();
+        }
+        depth++;
+        deepest = Math.max(deepest, depth);
+        k.kind = kind;
+        k.env = env;
+        return k;
+    }
+
+    private void Pop()
+    {
+        Clear(stack[--depth]);
+    }
+
+    private static void Clear(Frame k)
+    {
+        k.env = null;
+        k.rest = null;
+        k.p = null;
+        k.def = null;
+        k.values = null;
+        k.count = 0;
+        k.event = null;
+    }
+}
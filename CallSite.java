@@ -0,0 +1,37 @@
+/**
+ * LISP call of a user function in a function body, a cons that remembers the
+ * definition it called last.
+ * AList.Resolve builds these in place of the call's cons when the function
+ * is defined.  The definition is looked up again only when it has been
+ * replaced, and the number of arguments is counted once, here.
+ */
+final class CallSite extends Cons
+{
+    final int argc;  //the number of argument forms, -1 if the list is not proper
+    private Function cached;
+
+    CallSite(SExp name, SExp args)
+    {
+        super(name, args);
+        this.argc = args.ProperLength();
+    }
+
+    /**
+     * Get the definition of the called function
+     * @param dList The definition list
+     * @return The definition, or null if the name is not defined
+     */
+    Function Lookup(DList dList)
+    {
+        Function fn = cached;
+        if (fn != null && fn.owner == dList && fn.IsCurrent())
+        {
+            dList.siteHits.increment();
+            return fn;
+        }
+        dList.siteMisses.increment();
+        fn = dList.GetFunctionDefinition(CAR());
+        cached = fn;
+        return fn;
+    }
+}
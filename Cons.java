@@ -0,0 +1,17 @@
+/**
+ * LISP cons cell, the only S expression that is not an atom.
+ * It holds its car and cdr and nothing else.  SExp.INPUT fills in the cdr of
+ * a list's last cell once it has read what follows it; otherwise a cons is
+ * not changed once it has been made.
+ */
+public sealed class Cons extends SExp permits CallSite
+{
+    SExp car;
+    SExp cdr;
+
+    Cons(SExp car, SExp cdr)
+    {
+        this.car = car;
+        this.cdr = cdr;
+    }
+}
@@ -1,35 +1,88 @@
+import java.lang.ref.WeakReference;
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * LISP definition list
+ * A hash table from function name to definition; redefining a function
+ * replaces its entry.  The most recent definition of a name is also cached
+ * on the name's symbol, which saves the hash lookup when only one DList
+ * uses that name.  Symbols are shared by every session, so the cache holds
+ * the definition weakly and does not keep a closed session's DList alive.
   * @author Keith Johansen
   * johansek@cse.ohio-state.edu
  */
 public class DList
 {
-    private LinkedList<SExp> dl=new LinkedList<SExp>();
+    private final HashMap<Symbol, Function> dl = new HashMap<Symbol, Function>();
+
+    /**
+     * Calls after which a function is compiled by the Jit, 0 to never compile
+     */
+    int jitThreshold = 1000;
+
+    /**
+     * The results of pure functions, null unless memoizing was asked for
+     */
+    Memo memo;
+
+    //evaluate expensive arguments in parallel, see Parallel
+    boolean parallel;
+
+    //lookups answered by the inline caches of call sites, and made again;
+    //parallel workers count into them at once
+    final LongAdder siteHits = new LongAdder();
+    final LongAdder siteMisses = new LongAdder();
 
 	public SExp ADD(SExp def)
 	{
-		dl.addFirst(SExp.CONS(def.CAR(),SExp.CONS(def.CDR().CAR(), def.CDR().CDR().CAR())));
-		return def.CAR();
+		Symbol name = (Symbol)def.CAR();
+		Function old = dl.get(name);
+		Function fn = new Function(this, name, def.CDR().CAR(), def.CDR().CDR().CAR());
+		if (old != null)
+		{
+			old.replaced = true;
+		}
+		dl.put(name, fn);
+		name.function = new WeakReference<Function>(fn);
+		if (memo != null)
+		{
+			memo.Redefined(name);
+		}
+		return name;
 	}
 
-	public SExp GetFunctionDefinition(String fName)
+	public Function GetFunctionDefinition(SExp fName)
 	{
-        if(dl.size()==0)
-        {
-            return null;
-        }
-		Iterator itr = dl.listIterator();
-		while (itr.hasNext())	{
-			SExp def = (SExp)itr.next();
-			if (def.CAR().GetValue().equalsIgnoreCase(fName)){
-				return def.CDR();
-			}
+		if (!(fName instanceof Symbol))
+		{
+			return null;
+		}
+		WeakReference<Function> cached = ((Symbol)fName).function;
+		Function fn = cached == null ? null : cached.get();
+		if (fn != null && fn.owner == this)
+		{
+			return fn;
 		}
-		return null;
+		return dl.get(fName);
 	}
 
-}
+    /**
+     * Describe the use of the call sites' inline caches, for -stats
+     * @return One line
+     */
+	public String SiteStats()
+	{
+		return "call sites: " + siteHits.sum() + " hits, " + siteMisses.sum() + " misses";
+	}
 
+    /**
+     * Get the number of functions defined
+     * @return The number of names with a definition
+     */
+	public int Size()
+	{
+		return dl.size();
+	}
+
+}
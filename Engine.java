@@ -0,0 +1,85 @@
+/**
+ * LISP execution engines, selected with -engine on the command line.
+ * Every engine gives the same results and the same errors.
+ */
+public enum Engine
+{
+    /**
+     * Walk the S expression with EVAL, EVLIS, EVCON and APPLY
+     */
+    TREE
+    {
+        public SExp Run(SExp form, AList aList, DList dList) throws Exception
+        {
+            return Interpreter.EVAL(form, aList, dList, true);
+        }
+    },
+
+    /**
+     * Compile to a tree of Nodes first, function bodies are compiled by DEFUN
+     */
+    NODES
+    {
+        public SExp Run(SExp form, AList aList, DList dList) throws Exception
+        {
+            if (IsDefun(form))
+            {
+                return Interpreter.EVAL(form, aList, dList, true);
+            }
+            return NodeCompiler.Compile(form, dList).Execute(aList);
+        }
+    },
+
+    /**
+     * Compile to Bytecode and run it on the VM, function bodies are compiled
+     * on their first call
+     */
+    VM
+    {
+        public SExp Run(SExp form, AList aList, DList dList) throws Exception
+        {
+            if (IsDefun(form))
+            {
+                return Interpreter.EVAL(form, aList, dList, true);
+            }
+            Bytecode code = Bytecode.Compile(NodeCompiler.Compile(form, dList), SExp.NIL);
+            return new VM(dList).Run(code, aList);
+        }
+    },
+
+    /**
+     * Evaluate the S expression on the CEK machine, with its control stack on
+     * the heap
+     */
+    CEK
+    {
+        public SExp Run(SExp form, AList aList, DList dList) throws Exception
+        {
+            if (IsDefun(form))
+            {
+                return Interpreter.EVAL(form, aList, dList, true);
+            }
+            return new CEK(dList).Run(form, aList);
+        }
+    };
+
+    /**
+     * Evaluate a top level form
+     * @param form The form as read
+     * @param aList The global association list
+     * @param dList The definition list
+     * @return The value
+     * @throws java.lang.Exception
+     */
+    public abstract SExp Run(SExp form, AList aList, DList dList) throws Exception;
+
+    /**
+     * Is the form a DEFUN, those are only allowed at the top level
+     * @param form The form
+     * @return true if it is
+     */
+    static boolean IsDefun(SExp form)
+    {
+        return !form.IsAtomic() && form.CAR() == Interpreter.DEFUN;
+    }
+}
@@ -0,0 +1,248 @@
+import java.util.*;
+import jdk.jfr.*;
+
+/**
+ * LISP events for JDK Flight Recorder, in the category Lisp.
+ * Every top level form evaluated is a lisp.Form event and every one that
+ * fails a lisp.Error too; reading a form that takes over a millisecond is a
+ * lisp.Parse event.  With -Dlisp.jfr.calls=true a user function call that
+ * returns after over 10 ms (until the recording's settings say otherwise) is
+ * a lisp.Call event, timed by each engine where it makes the call, compiled
+ * code included; the tail calls a call makes in its place are part of it.
+ * The flag is a constant, so with it off the timing compiles away.
+ * Setting up the first event class takes JFR a good part of a second, so no
+ * event is made until Flight Recorder has been started, on the command line
+ * or later by jcmd.
+ */
+final class Events
+{
+    final static boolean CALLS = Boolean.getBoolean("lisp.jfr.calls");
+
+    //characters of a form kept in an event
+    private final static int TEXT_CHARS = 200;
+
+    @Name("lisp.Form")
+    @Label("Lisp Form")
+    @Description("A top level form evaluated")
+    @Category("Lisp")
+    @StackTrace(false)
+    static final class Form extends Event
+    {
+        @Label("Form")
+        String form;
+
+        @Label("Engine")
+        String engine;
+    }
+
+    @Name("lisp.Error")
+    @Label("Lisp Error")
+    @Description("A top level form that failed")
+    @Category("Lisp")
+    @StackTrace(false)
+    static final class Failure extends Event
+    {
+        @Label("Form")
+        String form;
+
+        @Label("Message")
+        String message;
+    }
+
+    @Name("lisp.Parse")
+    @Label("Lisp Parse")
+    @Description("A form read by SExp.INPUT")
+    @Category("Lisp")
+    @StackTrace(false)
+    @Threshold("1 ms")
+    static final class Parse extends Event
+    {
+        @Label("Cells")
+        @Description("Cons cells in the form")
+        long cells;
+    }
+
+    @Name("lisp.Call")
+    @Label("Lisp Call")
+    @Description("A slow user function call, with -Dlisp.jfr.calls=true")
+    @Category("Lisp")
+    @StackTrace(false)
+    @Threshold("10 ms")
+    static final class Call extends Event
+    {
+        @Label("Function")
+        String function;
+    }
+
+    private Events()
+    {
+    }
+
+    /**
+     * Has Flight Recorder been started
+     * @return true once events can be recorded
+     */
+    static boolean Recording()
+    {
+        return FlightRecorder.isInitialized();
+    }
+
+    /**
+     * Begin the event of a top level form
+     * @return The event, or null when not recording
+     */
+    static Form Form()
+    {
+        if (!Recording())
+        {
+            return null;
+        }
+        Form event = new Form();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Commit the event of a top level form, if the recording wants it
+     * @param event The event from Form, or null
+     * @param form The form
+     * @param engine The engine that evaluated it
+     */
+    static void Evaluated(Form event, SExp form, Engine engine)
+    {
+        if (event == null)
+        {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.form = Text(form);
+            event.engine = engine.name();
+            event.commit();
+        }
+    }
+
+    /**
+     * Record a top level form that failed
+     * @param form The form
+     * @param e Its error
+     */
+    static void Failed(SExp form, Exception e)
+    {
+        if (!Recording())
+        {
+            return;
+        }
+        Failure event = new Failure();
+        if (event.shouldCommit())
+        {
+            event.form = Text(form);
+            event.message = e.getMessage();
+            event.commit();
+        }
+    }
+
+    /**
+     * Begin the event of a form read
+     * @return The event, or null when not recording
+     */
+    static Parse Parse()
+    {
+        if (!Recording())
+        {
+            return null;
+        }
+        Parse event = new Parse();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Commit the event of a form read, if the recording wants it
+     * @param event The event from Parse, or null
+     * @param form The form
+     */
+    static void Parsed(Parse event, SExp form)
+    {
+        if (event == null)
+        {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.cells = Cells(form);
+            event.commit();
+        }
+    }
+
+    /**
+     * Begin the event of a user function call
+     * @param fn The function called
+     * @return The event, or null when not recording
+     */
+    static Call Begin(Function fn)
+    {
+        if (!Recording())
+        {
+            return null;
+        }
+        Call event = new Call();
+        event.function = fn.name.GetValue();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Commit the event of a call that has returned, if the recording wants it
+     * @param event The event from Begin, or null
+     */
+    static void End(Call event)
+    {
+        if (event == null)
+        {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.commit();
+        }
+    }
+
+    private static String Text(SExp form)
+    {
+        String text;
+        try
+        {
+            text = Interpreter.Show(form);
+        } catch (Exception e)
+        {
+            text = String.valueOf(form);
+        }
+        return text.length() > TEXT_CHARS ? text.substring(0, TEXT_CHARS) + "..." : text;
+    }
+
+    /**
+     * Count the conses of an S expression, shared ones each time they are
+     * reached
+     */
+    private static long Cells(SExp s)
+    {
+        long cells = 0;
+        ArrayDeque<SExp> todo = new ArrayDeque<SExp>();
+        todo.push(s);
+        while (!todo.isEmpty())
+        {
+            SExp x = todo.pop();
+            if (!x.IsAtomic())
+            {
+                cells++;
+                todo.push(x.CAR());
+                todo.push(x.CDR());
+            }
+        }
+        return cells;
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * LISP integer atom that fits in a long.
+ * The value is parsed once by SExp.INPUT; small values are shared from a cache.
+ */
+public final class Fixnum extends SExp
+{
+    private final static int CACHE_LOW = -128;
+    private final static int CACHE_HIGH = 1023;
+    private final static Fixnum[] cache = new Fixnum[CACHE_HIGH - CACHE_LOW + 1];
+
+    static
+    {
+        for (int i = 0; i < cache.length; i++)
+        {
+            cache[i] = new Fixnum(i + CACHE_LOW);
+        }
+    }
+
+    final long value;
+
+    private Fixnum(long value)
+    {
+        this.value = value;
+    }
+
+    /**
+     * Get the fixnum for a value, from the cache when it is small
+     * @param value The value
+     * @return The fixnum
+     */
+    public static Fixnum ValueOf(long value)
+    {
+        if (value >= CACHE_LOW && value <= CACHE_HIGH)
+        {
+            return cache[(int) value - CACHE_LOW];
+        }
+        return new Fixnum(value);
+    }
+
+    /**
+     * Get the printed value
+     * @return The value in decimal
+     */
+    public String GetValue()
+    {
+        return Long.toString(value);
+    }
+}
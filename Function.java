@@ -0,0 +1,148 @@
+import java.util.concurrent.atomic.*;
+
+/**
+ * LISP user function definition, as kept by a DList.
+ * Redefining a name makes a new Function and marks the old one replaced, so
+ * anything holding on to a definition can tell cheaply that it is stale.
+ */
+public class Function
+{
+    final DList owner;
+    final Symbol name;
+    final SExp pars;
+    final SExp body;
+    final int arity;
+    final Node node;    //the body compiled for the NODES engine
+    private volatile Bytecode bytecode;
+    private final AtomicInteger calls = new AtomicInteger();
+    private volatile JitCode jit;  //the body compiled by the Jit once the function is hot
+    boolean replaced;
+
+    Function(DList owner, Symbol name, SExp pars, SExp body)
+    {
+        this.owner = owner;
+        this.name = name;
+        this.pars = pars;
+        this.body = AList.Resolve(body, pars);
+        this.arity = pars.Length();
+        this.node = NodeCompiler.CompileBody(this.body, owner);
+    }
+
+    /**
+     * Get the body compiled for the VM engine, compiled once, on first use
+     * @return The code
+     */
+    public Bytecode Bytecode()
+    {
+        Bytecode code = bytecode;
+        if (code == null)
+        {
+            synchronized (this)
+            {
+                code = bytecode;
+                if (code == null)
+                {
+                    code = Bytecode.Compile(node, pars);
+                    bytecode = code;
+                }
+            }
+        }
+        return code;
+    }
+
+    /**
+     * Count a call, compiling the function once it has been called often enough,
+     * unless the Profiler is on.  Only the call that reaches the threshold
+     * compiles, whichever thread makes it; the others stay interpreted until
+     * the code is published
+     * @return The compiled body, or null while the function is cold
+     */
+    public JitCode Tier()
+    {
+        JitCode code = jit;
+        int threshold = owner.jitThreshold;
+        if (code == null && !Profiler.ON && threshold > 0 && calls.get() < threshold
+                && calls.incrementAndGet() == threshold)
+        {
+            code = Jit.Compile(this);
+            jit = code;
+        }
+        return code;
+    }
+
+    /**
+     * Run the body with the compiled code if it is hot, EVAL otherwise.  The
+     * result of a pure function comes from the memo table if it is on
+     * @param frame The frame holding the arguments
+     * @return The value
+     * @throws java.lang.Exception
+     */
+    public SExp Invoke(AList frame) throws Exception
+    {
+        Events.Call event = Events.CALLS ? Events.Begin(this) : null;
+        SExp value;
+        Memo memo = owner.memo;
+        if (memo != null && memo.IsPure(this))
+        {
+            value = memo.Get(this, frame.values);
+            if (value == null)
+            {
+                value = Execute(frame);
+                memo.Put(this, frame.values, value);
+            }
+        } else
+        {
+            value = Execute(frame);
+        }
+        if (Events.CALLS)
+        {
+            Events.End(event);
+        }
+        return value;
+    }
+
+    private SExp Execute(AList frame) throws Exception
+    {
+        JitCode code = Tier();
+        if (code != null)
+        {
+            return Run(code, frame);
+        }
+        return Interpreter.EVAL(body, frame, owner, false);
+    }
+
+    /**
+     * Run compiled code, making the tail calls it hands back in a loop
+     * @param code The compiled body
+     * @param frame The frame holding the arguments
+     * @return The value
+     * @throws java.lang.Exception
+     */
+    static SExp Run(JitCode code, AList frame) throws Exception
+    {
+        while (true)
+        {
+            SExp value = code.Run(frame);
+            if (!(value instanceof TailCall))
+            {
+                return value;
+            }
+            TailCall call = (TailCall) value;
+            frame = call.frame;
+            code = call.fn.Tier();
+            if (code == null)
+            {
+                return Interpreter.EVAL(call.fn.body, frame, call.fn.owner, false);
+            }
+        }
+    }
+
+    /**
+     * Is this still the definition of its name
+     * @return false once the function has been redefined
+     */
+    public boolean IsCurrent()
+    {
+        return !replaced;
+    }
+}
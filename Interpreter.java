@@ -1,53 +1,514 @@
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
 
 /**
  * LISP main interpreter
+ * An Interpreter is a session: its own definition list, global association
+ * list and engine.  Symbols and the conses read or built are shared by every
+ * session, and nothing the sessions share changes, so sessions can run on as
+ * many threads as there are sessions.  The Lisp functions themselves (EVAL,
+ * APPLY...) are static and work on the lists they are given.
  * @author Keith Johansen
  * johansek@cse.ohio-state.edu
  */
-public abstract class Interpreter
+public class Interpreter
 {
 
-    private final static String[] LISP_PRIMITIVES =
-    {
-        "CAR","CDR","CONS","ATOM","EQ","NULL","INT","PLUS","MINUS","TIMES","QUOTIENT","REMAINDER","LESS","GREATER","DEFUN"
-    };
+    //the interned names of the special forms, compared by reference
+    final static Symbol COND = SExp.Intern("COND");
+    final static Symbol QUOTE = SExp.Intern("QUOTE");
+    final static Symbol DEFUN = SExp.Intern("DEFUN");
+
     private final static String PROMPT_CHARS = ">>> ";
-    private final static String ERROR_CHARS="**ERR** ";
+    final static String ERROR_CHARS="**ERR** ";
+
+    //interrupts the evaluations that run past their timeout
+    private final static ScheduledExecutorService alarms = Executors.newSingleThreadScheduledExecutor(r ->
+    {
+        Thread t = new Thread(r, "lisp-timeouts");
+        t.setDaemon(true);
+        return t;
+    });
+
+    final DList dList = new DList();
+    final AList aList = new AList();
+    final Engine engine;
+    //where CONS makes its cells, with -Dlisp.arena=true, see Arena
+    private Arena arena;
+
+    /**
+     * Milliseconds a top level form may run before it fails, 0 for no limit
+     */
+    long timeout;
+
+    /**
+     * The System.nanoTime by which the forms being evaluated must all have
+     * ended, set by Server for a framed request; 0 when each form has the
+     * whole timeout
+     */
+    long deadline;
+
+    /**
+     * Start a session with no functions defined
+     * @param engine The engine to run top level forms with
+     */
+    public Interpreter(Engine engine)
+    {
+        this.engine = engine;
+        Metrics.Opened(dList);
+    }
+
+    public Interpreter()
+    {
+        this(Engine.TREE);
+    }
 
     public static void main(String args[])
     {
-        BufferedInputStream standIn = new BufferedInputStream(System.in);
+        Engine engine = Engine.TREE;
+        boolean stats = false;
+        boolean pipeline = false;
+        boolean parallel = false;
+        int jitThreshold = -1;
+        int memoEntries = 0;
+        long memoBytes = 64L << 20;
+        long timeout = 0;
+        String serve = null;
+        boolean framed = false;
+        int connections = 64;
+        ArrayList<String> files = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++)
+        {
+            if (args[i].equals("-engine") && i + 1 < args.length)
+            {
+                engine = Engine.valueOf(args[++i].toUpperCase());
+            } else if (args[i].equals("-jit") && i + 1 < args.length)
+            {
+                jitThreshold = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-memo") && i + 1 < args.length)
+            {
+                memoEntries = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-memobytes") && i + 1 < args.length)
+            {
+                memoBytes = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-stats"))
+            {
+                stats = true;
+            } else if (args[i].equals("-pipeline"))
+            {
+                pipeline = true;
+            } else if (args[i].equals("-parallel"))
+            {
+                parallel = true;
+            } else if (args[i].equals("-timeout") && i + 1 < args.length)
+            {
+                timeout = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-serve") && i + 1 < args.length)
+            {
+                serve = args[++i];
+            } else if (args[i].equals("-framed"))
+            {
+                framed = true;
+            } else if (args[i].equals("-connections") && i + 1 < args.length)
+            {
+                connections = Integer.parseInt(args[++i]);
+            } else if (!args[i].startsWith("-"))
+            {
+                files.add(args[i]);
+            } else
+            {
+                System.err.println("usage: java Interpreter [-engine tree|nodes|vm|cek] [-jit calls] [-memo entries] [-memobytes bytes] [-stats] [-pipeline] [-parallel] [-timeout ms] [-serve port|path [-framed] [-connections n]] [file ...]");
+                return;
+            }
+        }
 
-        //init the global a list and d list
-        DList dList = new DList();
-        AList aList = new AList();
+        Supplier<Interpreter> sessions = Sessions(engine, jitThreshold, memoEntries, memoBytes, parallel, timeout);
 
+        if (serve != null)
+        {
+            try
+            {
+                new Server(sessions, connections, framed).Serve(Server.Address(serve));
+            } catch (IOException e)
+            {
+                System.err.println(ERROR_CHARS + "ERROR IN SERVER: " + e.getMessage());
+            }
+            return;
+        }
+
+        Interpreter session = sessions.get();
+
+        Lexer standIn = new Lexer(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        if (!files.isEmpty())
+        {
+            session.Batch(files);
+        } else if (pipeline)
+        {
+            session.PipelinedRepl(standIn, new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false));
+        } else
+        {
+            session.Repl(standIn, System.out);
+        }
+
+        if (stats)
+        {
+            session.PrintStats();
+        }
+    }
+
+    /**
+     * Get a maker of sessions that are all set up the same way
+     * @param engine The engine to run top level forms with
+     * @param jitThreshold Calls before a function is compiled, -1 for the default
+     * @param memoEntries Results kept by the memo table, 0 for no table
+     * @param memoBytes Bytes the memo table may hold
+     * @param parallel Evaluate expensive arguments in parallel
+     * @param timeout Milliseconds a top level form may run, 0 for no limit
+     * @return The maker
+     */
+    static Supplier<Interpreter> Sessions(Engine engine, int jitThreshold, int memoEntries, long memoBytes,
+            boolean parallel, long timeout)
+    {
+        return () ->
+        {
+            Interpreter session = new Interpreter(engine);
+            if (jitThreshold >= 0)
+            {
+                session.dList.jitThreshold = jitThreshold;
+            }
+            if (memoEntries > 0)
+            {
+                session.dList.memo = new Memo(session.dList, memoEntries, memoBytes);
+            }
+            session.dList.parallel = parallel;
+            session.timeout = timeout;
+            return session;
+        };
+    }
+
+    /**
+     * Evaluate a top level form in this session
+     * @param form The form
+     * @return The value
+     * @throws java.lang.Exception
+     */
+    public SExp Evaluate(SExp form) throws Exception
+    {
+        Events.Form event = Events.Form();
+        try
+        {
+            return Arena.ON && !dList.parallel ? Allocated(form) : Profiled(form);
+        } catch (Exception e)
+        {
+            Metrics.errors.increment();
+            Events.Failed(form, e);
+            throw e;
+        } finally
+        {
+            Metrics.forms.increment();
+            Events.Evaluated(event, form, engine);
+        }
+    }
+
+    /**
+     * Evaluate with CONS making its cells in the session's arena.  An arena
+     * belongs to one thread at a time, so -parallel sessions keep to the heap
+     */
+    private SExp Allocated(SExp form) throws Exception
+    {
+        if (arena == null)
+        {
+            arena = new Arena();
+        }
+        //the last value has been printed, only the memo table's are still held
+        arena.Collect(dList.memo);
+        Arena previous = Arena.Bind(arena);
+        try
+        {
+            return Profiled(form);
+        } finally
+        {
+            Arena.Bind(previous);
+        }
+    }
+
+    private SExp Profiled(SExp form) throws Exception
+    {
+        if (!Profiler.ON)
+        {
+            return Timed(form);
+        }
+        //an error leaves the functions it went out of entered
+        int depth = Profiler.Depth();
+        try
+        {
+            return Timed(form);
+        } finally
+        {
+            Profiler.Unwind(depth);
+        }
+    }
+
+    private SExp Timed(SExp form) throws Exception
+    {
+        if (timeout <= 0)
+        {
+            return engine.Run(form, aList, dList);
+        }
+
+        long delay = TimeUnit.MILLISECONDS.toNanos(timeout);
+        if (deadline != 0)
+        {
+            delay = deadline - System.nanoTime();
+            if (delay <= 0)
+            {
+                throw new Exception("ERROR IN EVAL: timed out after " + timeout + " ms");
+            }
+        }
+
+        //the alarm interrupts this thread, which the engines Poll for
+        Alarm alarm = new Alarm();
+        ScheduledFuture<?> pending = alarms.schedule(alarm, delay, TimeUnit.NANOSECONDS);
+        try
+        {
+            return engine.Run(form, aList, dList);
+        } catch (Exception e)
+        {
+            if (alarm.Stop())
+            {
+                throw new Exception("ERROR IN EVAL: timed out after " + timeout + " ms");
+            }
+            throw e;
+        } finally
+        {
+            alarm.Stop();
+            pending.cancel(false);
+            Thread.interrupted();  //in case the alarm went off as the form ended
+        }
+    }
+
+    /**
+     * Interrupts the thread that made it once the timeout has passed, unless
+     * the evaluation has ended
+     */
+    private static final class Alarm implements Runnable
+    {
+        private final Thread thread = Thread.currentThread();
+        private boolean stopped;
+        private boolean fired;
+
+        public synchronized void run()
+        {
+            if (!stopped)
+            {
+                fired = true;
+                thread.interrupt();
+            }
+        }
+
+        /**
+         * Keep the alarm from going off
+         * @return true if it already has
+         */
+        synchronized boolean Stop()
+        {
+            stopped = true;
+            return fired;
+        }
+    }
+
+    /**
+     * Read, evaluate and print with prompts until the input ends
+     * @param in The input
+     * @param out The output, the prompt is flushed before each read
+     */
+    public void Repl(Lexer in, PrintStream out)
+    {
         boolean more = true;
         while (more)  //while there is more input to read
         {
             try
             {
-                System.out.print(PROMPT_CHARS);
+                out.print(PROMPT_CHARS);
+                out.flush();
 
-                SExp input = SExp.INPUT(standIn);
+                SExp input = SExp.INPUT(in);
                 if (input == null)
                 {
                     more = false; //no more to read
                 } else
                 {
-                    SExp output = EVAL(input, aList, dList, true);
-
-                    //all output is in list notation
-                    System.out.println(output.ToStringDotNotation());
+                    SExp output = Evaluate(input);
+                    out.println(Show(output));
                 }
 
             } catch (Exception e)
             {
                 //all errors are in the form of exceptions that
                 //are synthesized up to this level to be printed
-                System.out.println(ERROR_CHARS + e.getMessage());
+                out.println(ERROR_CHARS + e.getMessage());
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Read, evaluate and print with prompts until the input ends, on three
+     * threads
+     * @param in The input
+     * @param out The output, flushed after each batch of results
+     */
+    public void PipelinedRepl(Lexer in, PrintStream out)
+    {
+        try
+        {
+            new Pipeline(this).Run(in, out, PROMPT_CHARS, ERROR_CHARS);
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Get an executor that runs each task on a thread of its own, a virtual
+     * thread when the JVM has them, so that many sessions can each have one
+     * @return The executor
+     */
+    public static ExecutorService SessionExecutor()
+    {
+        try
+        {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e)
+        {
+            //no virtual threads before Java 21, or without --enable-preview
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Stop the evaluation if its thread has been interrupted, as Evaluate's
+     * timeout does, or the parallel argument it is part of has been
+     * cancelled.  Every engine calls this for each user function call
+     * @throws java.lang.Exception
+     */
+    static void Poll() throws Exception
+    {
+        Thread thread = Thread.currentThread();
+        if (thread.isInterrupted() || thread instanceof ForkJoinWorkerThread && Parallel.Cancelled())
+        {
+            throw new Exception("ERROR IN EVAL: interrupted");
+        }
+    }
+
+    /**
+     * Get the printed form of a result
+     * @param output The result
+     * @return The result in dot notation
+     */
+    static String Show(SExp output)
+    {
+        return output.ToStringDotNotation();
+    }
+
+    /**
+     * Run every top level form of each file, in order, without prompts.
+     * Files are mapped and tokenized in place; the results go to one
+     * buffered stream, and the time spent reading, evaluating and printing
+     * each file goes to standard error
+     * @param files The file names
+     */
+    public void Batch(List<String> files)
+    {
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false);
+        for (String file : files)
+        {
+            long parse = 0;
+            long eval = 0;
+            long print = 0;
+            int forms = 0;
+            try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ))
+            {
+                Lexer in = new Lexer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), StandardCharsets.UTF_8);
+                while (true)
+                {
+                    long start = System.nanoTime();
+                    String result = null;  //set early by an error
+                    SExp input = null;
+                    try
+                    {
+                        input = SExp.INPUT(in);
+                    } catch (Exception e)
+                    {
+                        result = ERROR_CHARS + e.getMessage();
+                    }
+                    long read = System.nanoTime();
+                    parse += read - start;
+                    if (input == null && result == null)
+                    {
+                        break;  //no more to read
+                    }
+                    forms++;
+
+                    SExp output = null;
+                    if (result == null)
+                    {
+                        try
+                        {
+                            output = Evaluate(input);
+                        } catch (Exception e)
+                        {
+                            result = ERROR_CHARS + e.getMessage();
+                        }
+                    }
+                    long ran = System.nanoTime();
+                    eval += ran - read;
+
+                    if (result == null)
+                    {
+                        try
+                        {
+                            result = Show(output);
+                        } catch (Exception e)
+                        {
+                            result = ERROR_CHARS + e.getMessage();
+                        }
+                    }
+                    out.println(result);
+                    print += System.nanoTime() - ran;
+                }
+            } catch (IOException | RuntimeException e)
+            {
+                out.println(ERROR_CHARS + "ERROR IN INPUT: cannot read " + file + ": " + e.getMessage());
             }
+            out.flush();
+            System.err.println(file + ": " + forms + " forms, parse " + parse / 1000000 + " ms, eval "
+                    + eval / 1000000 + " ms, print " + print / 1000000 + " ms");
+        }
+    }
+
+    /**
+     * Print what the engine measured to standard error, once input has ended
+     */
+    public void PrintStats()
+    {
+        System.err.println(dList.SiteStats());
+        if (dList.memo != null)
+        {
+            System.err.println(dList.memo.Stats());
+        }
+        if (engine == Engine.CEK)
+        {
+            System.err.println("peak continuation depth: " + CEK.PeakDepth());
+        }
+        if (arena != null)
+        {
+            System.err.println(arena.Stats());
         }
     }
 
@@ -62,31 +523,50 @@ public abstract class Interpreter
      */
     public static SExp EVAL(SExp s, AList aList, DList dList, boolean topLevel) throws Exception
     {
-        if (s.IsAtomic())
+        SExp value;
+        Memo.Pending pending = null;  //pure calls whose result is this value
+        boolean profiled = false;     //a function has been entered for the Profiler
+        Events.Call event = null;     //the call this EVAL makes, the tail calls after it are part of it
+
+        //a COND branch or a function body is the last thing evaluated, so
+        //instead of recursing it is evaluated by the next trip around the loop
+        while (true)
         {
-            //if atom is integer or boolean just return
-            if (s.IsInteger() || s.GetValue().equalsIgnoreCase("T") || s.GetValue().equalsIgnoreCase("NIL") || s == SExp.NIL || s == SExp.T)
+            Poll();
+            if (s.IsAtomic())
             {
-                return s;
-            }
+                //parameter references were resolved to a frame index by DEFUN
+                if (s instanceof LocalRef)
+                {
+                    value = aList.Get(((LocalRef) s).index);
+                    break;
+                }
 
-            //if the atom is a valid identifier
-            if (IsAtomInValidFormat(s.GetValue()))
-            {
-                SExp binding = aList.GetBindingPair(s.GetValue());
-                if (binding != null)
+                //if atom is integer or boolean just return
+                if (s == SExp.NIL || s == SExp.T || s.IsInteger())
                 {
-                    return binding;
+                    value = s;
+                    break;
+                }
+
+                //if the atom is a valid identifier
+                if (IsValidAtom(s))
+                {
+                    SExp binding = aList.GetBindingPair(s);
+                    if (binding != null)
+                    {
+                        value = binding;
+                        break;
+                    } else
+                    {
+                        throw new Exception("ERROR IN EVAL: " + s.GetValue() + " is not bound");
+                    }
                 } else
                 {
-                    throw new Exception("ERROR IN EVAL: " + s.GetValue() + " is not bound");
+                    throw new Exception("ERROR IN EVAL: '" + s.GetValue() + "' is not a valid identifier");
                 }
-            } else
-            {
-                throw new Exception("ERROR IN EVAL: '" + s.GetValue() + "' is not a valid identifier");
             }
-        } else //non atomic s expressions
-        {
+
             //the car of a function definition must be atomic, that is the name of the function
             if (!s.CAR().IsAtomic())
             {
@@ -94,67 +574,143 @@ public abstract class Interpreter
             }
 
             //handle the special forms
-            if (s.CAR().GetValue().equalsIgnoreCase("COND"))
+            if (s.CAR() == COND)
             {
                 ConditionalValidation(s);
-                return EVCON(s.CDR(), aList, dList);
-
+                s = SelectClause(s.CDR(), aList, dList);
+                topLevel = false;
+                continue;
             }
 
-            if (s.CAR().GetValue().equalsIgnoreCase("QUOTE"))
+            if (s.CAR() == QUOTE)
             {
                 CheckParamCount("QUOTE", s.CDR(), 1);
-                return s.CDR().CAR();
+                value = s.CDR().CAR();
+                break;
 
             }
 
-            if (s.CAR().GetValue().equalsIgnoreCase("DEFUN"))
+            if (s.CAR() == DEFUN)
             {
                 if (!topLevel)
                 {
                     throw new Exception("ERROR IN EVAL: No Nested Defuns allowed");
                 }
                 DefunValidation(s);
-                return dList.ADD(s.CDR());
+                value = dList.ADD(s.CDR());
+                break;
             }
 
-            String f = s.CAR().GetValue();
+            SExp f = s.CAR();
 
-            //check to see if the function is a primitive function for special handling
-            //built in functions are not in the dlist, just see if exists, apply will apply it
-            boolean isLISP_builtin = false;
-            for (int i = 0; i < LISP_PRIMITIVES.length; i++)
+            //built in functions are not in the dlist, just see if exists
+            //otherwise check if the function is bound on the d list
+            Primitive p = Primitive.Lookup(f);
+            Function def = null;
+            CallSite site = s instanceof CallSite ? (CallSite) s : null;
+            if (p == null)
             {
-                if (f.equalsIgnoreCase(LISP_PRIMITIVES[i]))
-                {
-                    isLISP_builtin = true;
-                    break;
-                }
-            }
-
-            //check if the function is bound on the d list
-            //dont need to save the def, apply will read the definition
-            if (!isLISP_builtin)
-            {
-                SExp def = dList.GetFunctionDefinition(f);
+                def = site != null ? site.Lookup(dList) : dList.GetFunctionDefinition(f);
                 //if null then the function is not on the dlist and is thus not defined
                 if (def == null)
                 {
-                    throw new Exception("ERROR IN EVAL: '" + f + "' is not defined");
+                    throw new Exception("ERROR IN EVAL: '" + f.GetValue() + "' is not defined");
                 }
             }
 
 
-            //the parameter list cannot be atomic
-            if (s.CDR().IsAtomic())
+            //the parameter list cannot be atomic or dotted
+            if (s.CDR().IsAtomic() || (site != null ? site.argc : s.CDR().ProperLength()) < 0)
             {
                 throw new Exception("ERROR IN EVAL: '" + s.CAR().GetValue() + "' has bad arguments");
             }
 
+            SExp x = EVLIS(s.CDR(), aList, dList);
+            if (p != null)
+            {
+                value = p.Apply(x);
+                break;
+            }
+
+            //what APPLY does for a user function, with the body left to the loop
+            AList frame;
+            if (site != null && site.argc >= 0)
+            {
+                //the call site counted its arguments
+                if (site.argc != def.arity)
+                {
+                    throw ParamCountError(f.GetValue(), def.arity, site.argc);
+                }
+                frame = AList.AddBindingPairs(AList.Trim(aList, def.pars), def.pars, x, site.argc);
+            } else
+            {
+                CheckParamCount(f.GetValue(), x, def.arity);
+                frame = AList.AddBindingPairs(AList.Trim(aList, def.pars), def.pars, x);
+            }
+            if (Profiler.ON)
+            {
+                //the loop makes the call in place of the one it is in
+                if (profiled)
+                {
+                    Profiler.Exit();
+                }
+                Profiler.Enter(def);
+                profiled = true;
+            }
+            if (Events.CALLS && event == null)
+            {
+                event = Events.Begin(def);
+            }
+            if (dList.memo != null && dList.memo.IsPure(def))
+            {
+                value = dList.memo.Get(def, frame.values);
+                if (value != null)
+                {
+                    break;
+                }
+                //the body's value is this call's result too, kept when it is known
+                if (pending == null)
+                {
+                    pending = dList.memo.new Pending();
+                }
+                pending.Add(def, frame.values);
+            }
+            JitCode code;
+            value = null;
+            while ((code = def.Tier()) != null)
+            {
+                //compiled code hands its tail calls back to this loop
+                SExp result = code.Run(frame);
+                if (!(result instanceof TailCall))
+                {
+                    value = result;
+                    break;
+                }
+                def = ((TailCall) result).fn;
+                frame = ((TailCall) result).frame;
+            }
+            if (code != null)
+            {
+                break;
+            }
+            s = def.body;
+            aList = frame;
+            topLevel = false;
+        }
 
-	    
-            return APPLY(s.CAR(), EVLIS(s.CDR(), aList, dList), aList, dList);
+        if (Profiler.ON && profiled)
+        {
+            Profiler.Exit();
+        }
+        if (Events.CALLS)
+        {
+            Events.End(event);
         }
+        if (pending != null)
+        {
+            pending.Store(value);
+        }
+        return value;
     }
 
     /**
@@ -166,13 +722,22 @@ public abstract class Interpreter
      * @throws java.lang.Exception
      */
     public static SExp EVLIS(SExp l, AList aList, DList dList) throws Exception
+    {
+        if (dList.parallel && Parallel.Worth(l))
+        {
+            return Parallel.EVLIS(l, aList, dList);
+        }
+        return EvaluateInOrder(l, aList, dList);
+    }
+
+    private static SExp EvaluateInOrder(SExp l, AList aList, DList dList) throws Exception
     {
         if (l.IsNull())
         {
             return SExp.NIL;
         } else
         {
-            return SExp.CONS(EVAL(l.CAR(), aList, dList, false), EVLIS(l.CDR(), aList, dList));
+            return SExp.Pair(EVAL(l.CAR(), aList, dList, false), EvaluateInOrder(l.CDR(), aList, dList));
         }
     }
 
@@ -186,159 +751,67 @@ public abstract class Interpreter
      */
     public static SExp EVCON(SExp be, AList aList, DList dList) throws Exception
     {
-        if (be.IsNull())
-        {
-            throw new Exception("ERROR IN EVCON: All conditionals cannot be null");
-        }
-
-        //if the current conditional is true, then evaluate its expression
-        if (SExp.EQ(EVAL(be.CAR().CAR(), aList, dList, false), SExp.T).GetValue().equals("T"))
-        {
-            return EVAL(be.CAR().CDR().CAR(), aList, dList, false);
-        } else  //get the next conditional in the list
-        {
-            return EVCON(be.CDR(), aList, dList);
-        }
-
-
+        return EVAL(SelectClause(be, aList, dList), aList, dList, false);
     }
 
     /**
-     * LISP apply function
-     * @param f The function to apply
-     * @param x the arguments
+     * Find the first conditional that is true
+     * @param be The condtions, operation pairs
      * @param aList The current association list
      * @param dList The current definition list
-     * @return The applied function return value
+     * @return The expression of that pair, not yet evaluated
      * @throws java.lang.Exception
      */
-    public static SExp APPLY(SExp f, SExp x, AList aList, DList dList) throws Exception
+    private static SExp SelectClause(SExp be, AList aList, DList dList) throws Exception
     {
-        String fName = f.GetValue();
-
-        //Since Java does not allow switching on strings here are a whole lot of ifs
-
-
-        if (fName.equalsIgnoreCase("CAR"))
-        {
-            CheckParamCount("CAR", x, 1);
-            if (x.CAR().IsAtomic())
-            {
-                throw new Exception("ERROR IN APPLY: CAR cannot be performed on atom");
-            }
-            return x.CAR().CAR();
-        }
-
-
-        if (fName.equalsIgnoreCase("CDR"))
-        {
-            CheckParamCount("CDR", x, 1);
-            if (x.CAR().IsAtomic())
-            {
-                throw new Exception("ERROR IN APPLY: CDR cannot be performed on atom");
-            }
-            return x.CAR().CDR();
-        }
-
-
-        if (fName.equalsIgnoreCase("CONS"))
-        {
-            CheckParamCount("CONS", x, 2);
-            return SExp.CONS(x.CAR(), x.CDR().CAR());
-        }
-
-        if (fName.equalsIgnoreCase("EQ"))
+        for (SExp clauses = be; ; clauses = clauses.CDR())
         {
-            CheckParamCount("EQ", x, 2);
-            return SExp.EQ(x.CAR(), x.CDR().CAR());
-        }
-
-        if (fName.equalsIgnoreCase("ATOM"))
-        {
-            if (x.CAR().IsAtomic())
+            if (clauses.IsNull())
             {
-                return SExp.T;
-            } else
-            {
-                return SExp.NIL;
+                throw new Exception("ERROR IN EVCON: All conditionals cannot be null");
             }
-        }
-        if (fName.equalsIgnoreCase("NULL"))
-        {
-            if (x.CAR().IsNull())
-            {
-                return SExp.T;
-            } else
-            {
-                return SExp.NIL;
-            }
-        }
 
-        if (fName.equalsIgnoreCase("INT"))
-        {
-            CheckParamCount("INT", x, 1);
-            if (x.CAR().IsInteger())
-            {
-                return SExp.T;
-            } else
+            //if the current conditional is true, its expression is the one to evaluate
+            if (IsTrue(EVAL(clauses.CAR().CAR(), aList, dList, false)))
             {
-                return SExp.NIL;
+                return clauses.CAR().CDR().CAR();
             }
         }
+    }
 
-        if (fName.equalsIgnoreCase("PLUS"))
-        {
-            CheckParamCount("PLUS", x, 2);
-            return SExp.PLUS(x.CAR(), x.CDR().CAR());
-        }
-
-        if (fName.equalsIgnoreCase("MINUS"))
-        {
-            CheckParamCount("MINUS", x, 2);
-            return SExp.MINUS(x.CAR(), x.CDR().CAR());
-        }
-
-        if (fName.equalsIgnoreCase("TIMES"))
-        {
-            CheckParamCount("TIMES", x, 2);
-            return SExp.TIMES(x.CAR(), x.CDR().CAR());
-        }
-
-        if (fName.equalsIgnoreCase("QUOTIENT"))
+    /**
+     * LISP apply function
+     * @param f The function to apply
+     * @param x the arguments
+     * @param aList The current association list
+     * @param dList The current definition list
+     * @return The applied function return value
+     * @throws java.lang.Exception
+     */
+    public static SExp APPLY(SExp f, SExp x, AList aList, DList dList) throws Exception
+    {
+        //builtins are found with one lookup on the name's symbol
+        Primitive p = Primitive.Lookup(f);
+        if (p != null)
         {
-            CheckParamCount("QUOTIENT", x, 2);
-            return SExp.QUOTIENT(x.CAR(), x.CDR().CAR());
+            return p.Apply(x);
         }
 
-        if (fName.equalsIgnoreCase("REMAINDER"))
-        {
-            CheckParamCount("REMAINDER", x, 2);
-            return SExp.REMAINDER(x.CAR(), x.CDR().CAR());
-        }
+        //Defualt case means that the function is not built in
+        Function def = dList.GetFunctionDefinition(f);
 
-        if (fName.equalsIgnoreCase("LESS"))
-        {
-            CheckParamCount("LESS", x, 2);
-            return SExp.LESS(x.CAR(), x.CDR().CAR());
-        }
+        CheckParamCount(f.GetValue(), x, def.arity);
 
-        if (fName.equalsIgnoreCase("GREATER"))
+        //evaluate in a new frame for the parameters, with the compiled code once the function is hot
+        AList frame = AList.AddBindingPairs(AList.Trim(aList, def.pars), def.pars, x);
+        if (Profiler.ON)
         {
-            CheckParamCount("GREATER", x, 2);
-            return SExp.GREATER(x.CAR(), x.CDR().CAR());
+            Profiler.Enter(def);
+            SExp value = def.Invoke(frame);
+            Profiler.Exit();
+            return value;
         }
-
-        //Defualt case means that the function is not built in
-        SExp def = dList.GetFunctionDefinition(fName);
-
-        SExp pars = def.CAR();
-        SExp body = def.CDR();
-
-
-        CheckParamCount(fName, x, pars.Length());
-
-        //evaluate, after adding bindings to the assoc list for the parameters
-        return EVAL(body, AList.AddBindingPairs(aList, pars, x), dList, false);
+        return def.Invoke(frame);
 
     }
 
@@ -351,12 +824,40 @@ public abstract class Interpreter
      */
     public static void CheckParamCount(String funcName, SExp paramList, int num) throws Exception
     {
-        if (paramList.Length() != num)
+        int given = paramList.ProperLength();
+        if (given < 0)
+        {
+            throw new Exception("ERROR IN EVAL: '" + funcName + "' has bad arguments");
+        }
+        if (given != num)
         {
-            throw new Exception(funcName + " expects " + num + " parameters, but " + paramList.Length() + " were provided");
+            throw ParamCountError(funcName, num, given);
         }
     }
 
+    /**
+     * The error for a call with the wrong number of parameters
+     * @param funcName The function, just for error printing
+     * @param num The expected number of parameters
+     * @param given The number provided
+     * @return The exception to throw
+     */
+    public static Exception ParamCountError(String funcName, int num, int given)
+    {
+        return new Exception(funcName + " expects " + num + " parameters, but " + given + " were provided");
+    }
+
+    /**
+     * Is a conditional true, it must be an atom and only T is true
+     * @param value The evaluated conditional
+     * @return true if the value is T
+     * @throws java.lang.Exception
+     */
+    public static boolean IsTrue(SExp value) throws Exception
+    {
+        return SExp.EQ(value, SExp.T) == SExp.T;
+    }
+
     /**
      * Helper function to validate conditionals,part of eval
      * @param condExp
@@ -372,12 +873,16 @@ public abstract class Interpreter
             throw new Exception("ERROR IN EVAL: conditonal cannot be atomic");
         }
 
-        int len = expList.Length();
+        int len = expList.ProperLength();
+        if (len < 0)
+        {
+            throw new Exception("ERROR IN EVAL: condtional is not in good form");
+        }
 
         for (int i = 0; i < len; i++)
         {
             SExp cond = expList.CAR();
-            if (cond.Length() != 2)  //condit and expression
+            if (cond.ProperLength() != 2)  //condit and expression
             {
                 throw new Exception("ERROR IN EVAL: condtional is not in good form");
             }
@@ -400,7 +905,7 @@ public abstract class Interpreter
 
         SExp fName = def.CDR().CAR();
 
-        if (!IsIdentifierInValidFormat(fName.GetValue()) || !fName.IsAtomic())
+        if (!fName.IsAtomic() || !IsIdentifierInValidFormat(fName.GetValue()))
         {
             throw new Exception("ERROR IN EVAL: function name is bad");
         }
@@ -432,20 +937,18 @@ public abstract class Interpreter
      */
     public static boolean IsAtomInValidFormat(String ID)
     {
-        try
-        {
-            Integer.parseInt(ID);
-            return true;
-        } catch (Exception e)
-        {
-            if (IsIdentifierInValidFormat(ID))
-            {
-                return true;
-            } else
-            {
-                return false;
-            }
-        }
+        return SExp.ParseInteger(ID) != null || IsIdentifierInValidFormat(ID);
+    }
+
+    /**
+     * Helper function to check if an atom is valid, without looking at the
+     * name of a symbol again
+     * @param atom The atom
+     * @return true if it may be evaluated
+     */
+    static boolean IsValidAtom(SExp atom)
+    {
+        return atom instanceof Symbol ? ((Symbol) atom).valid : IsAtomInValidFormat(atom.GetValue());
     }
 
     /**
@@ -455,20 +958,7 @@ public abstract class Interpreter
      */
     public static boolean IsIdentifierInValidFormat(String ID)
     {
-        //first char must be a letter
-        if (!Character.isLetter(ID.charAt(0)))
-        {
-            return false;
-        }
-        //subsequent characters can be letters or digits, but no punctuation
-        for (int i = 1; i < ID.length(); i++)
-        {
-            if (!Character.isLetterOrDigit(ID.charAt(i)))
-            {
-                return false;
-            }
-        }
-        return true;
+        return Symbol.IsIdentifier(ID);
     }
 }
 
@@ -0,0 +1,74 @@
+/**
+ * LISP interpreter metrics, registered with the platform MBean server as
+ * rzel.lisp:type=Interpreter by -serve or with -Dlisp.jmx=true.  The form and
+ * error counts cover every session the JVM has run, the function and cache
+ * counts the sessions still open.
+ */
+public interface InterpreterMXBean
+{
+    /**
+     * @return Top level forms evaluated
+     */
+    long getFormsEvaluated();
+
+    /**
+     * @return Top level forms that failed
+     */
+    long getErrors();
+
+    /**
+     * @return Cons cells allocated by the CONS builtin
+     */
+    long getConsCells();
+
+    /**
+     * @return Sessions open
+     */
+    int getSessions();
+
+    /**
+     * @return Functions defined, in all the open sessions' DLists
+     */
+    int getFunctions();
+
+    /**
+     * @return Calls whose site had the function cached
+     */
+    long getCallSiteHits();
+
+    /**
+     * @return Calls whose site had to look the function up
+     */
+    long getCallSiteMisses();
+
+    /**
+     * @return Call site hits over calls, NaN before any call
+     */
+    double getCallSiteHitRate();
+
+    /**
+     * @return Memo table lookups that found a result
+     */
+    long getMemoHits();
+
+    /**
+     * @return Memo table lookups that found none
+     */
+    long getMemoMisses();
+
+    /**
+     * @return Memo hits over lookups, NaN before any lookup
+     */
+    double getMemoHitRate();
+
+    /**
+     * @return The Profiler's report, with -Dlisp.profile=true
+     */
+    String ProfileReport();
+
+    /**
+     * Write the Sampler's samples so far, with -Dlisp.sample=file
+     * @throws java.io.IOException
+     */
+    void WriteSamples() throws java.io.IOException;
+}
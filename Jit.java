@@ -0,0 +1,753 @@
+import java.io.*;
+import java.lang.invoke.*;
+import java.util.*;
+
+/**
+ * LISP second tier: compiles the Node tree of a hot function into a hidden
+ * JVM class, so HotSpot can inline and optimize it like Java code.
+ * The generated method does what the nodes do, calling the builtins and the
+ * small runtime helpers at the bottom of this class directly.  A call of the
+ * function from its own body becomes a direct static call.
+ */
+final class Jit
+{
+    private final static MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private final static String CLASS = "JitFunction";
+    private final static String BODY = "(LAList;)LSExp;";
+
+    private final Function fn;
+    private final Pool pool = new Pool();
+    private final IdentityHashMap<Object, Integer> constantIndex = new IdentityHashMap<Object, Integer>();
+    private final ArrayList<Object> constants = new ArrayList<Object>();
+    private final ArrayList<String> constantTypes = new ArrayList<String>();
+
+    /**
+     * A body the class file format has no room for: a method over 64K, a
+     * branch too far or too many constants
+     */
+    private static final class TooLarge extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        TooLarge(String message)
+        {
+            super(message, null, false, false);
+        }
+    }
+
+    private Jit(Function fn)
+    {
+        this.fn = fn;
+    }
+
+    /**
+     * Compile a function
+     * @param fn The function
+     * @return The compiled body, or null if it could not be compiled
+     */
+    static JitCode Compile(Function fn)
+    {
+        try
+        {
+            Jit jit = new Jit(fn);
+            byte[] bytes = jit.ClassFile();
+            MethodHandles.Lookup hidden = LOOKUP.defineHiddenClassWithClassData(bytes, jit.constants.toArray(), true);
+            return (JitCode) hidden.findConstructor(hidden.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (TooLarge | StackOverflowError e)
+        {
+            //a body too big for one method, or too deep to walk here, stay in the interpreter
+            return null;
+        } catch (RuntimeException | Error e)
+        {
+            //bad bytecode is a bug in the Jit, and the JVM's own errors are not ours to hide
+            throw e;
+        } catch (Throwable e)
+        {
+            throw new IllegalStateException("cannot load the compiled " + fn.name.GetValue(), e);
+        }
+    }
+
+    private byte[] ClassFile() throws IOException
+    {
+        Code body = new Code();
+        body.Helper("Poll", "()V", 0);  //at the start, so a self tail call polls too
+        body.Emit(fn.node, true);
+        body.Op(0xb0);  //areturn
+
+        Code run = new Code();
+        run.Op(0x2b);  //aload_1
+        run.Push(1);
+        run.Invoke(0xb8, CLASS, "invoke", BODY, 0);
+        run.Op(0xb0);
+
+        Code init = new Code();
+        init.Op(0x2a);  //aload_0
+        init.Push(1);
+        init.Invoke(0xb7, "JitCode", "<init>", "()V", -1);
+        init.Op(0xb1);  //return
+
+        //the constants come in as the class data, one static final field each
+        Code clinit = new Code();
+        clinit.Invoke(0xb8, "java/lang/invoke/MethodHandles", "lookup", "()Ljava/lang/invoke/MethodHandles$Lookup;", 1);
+        clinit.Op(0x13);  //ldc_w
+        clinit.U2(pool.String("_"));
+        clinit.Push(1);
+        clinit.Op(0x13);
+        clinit.U2(pool.Class("[Ljava/lang/Object;"));
+        clinit.Push(1);
+        clinit.Invoke(0xb8, "java/lang/invoke/MethodHandles", "classData",
+                "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;)Ljava/lang/Object;", -2);
+        clinit.Op(0xc0);  //checkcast
+        clinit.U2(pool.Class("[Ljava/lang/Object;"));
+        clinit.Op(0x4b);  //astore_0
+        clinit.Push(-1);
+        for (int i = 0; i < constants.size(); i++)
+        {
+            String type = constantTypes.get(i);
+            clinit.Op(0x2a);
+            clinit.Push(1);
+            clinit.Int(i);
+            clinit.Op(0x32);  //aaload
+            clinit.Push(-1);
+            clinit.Op(0xc0);
+            clinit.U2(pool.Class(type.substring(1, type.length() - 1)));
+            clinit.Op(0xb3);  //putstatic
+            clinit.U2(pool.Field(CLASS, "k" + i, type));
+            clinit.Push(-1);
+        }
+        clinit.Op(0xb1);
+
+        int thisClass = pool.Class(CLASS);
+        int superClass = pool.Class("JitCode");
+        int[][] methods =
+        {
+            Method(0x0008, "invoke", BODY, 2),  //static, local 1 holds a frame
+            Method(0x0001, "Run", BODY, 2),     //public
+            Method(0x0001, "<init>", "()V", 1),
+            Method(0x0008, "<clinit>", "()V", 1),
+        };
+        int[] fieldNames = new int[constants.size()];
+        int[] fieldTypes = new int[constants.size()];
+        for (int i = 0; i < constants.size(); i++)
+        {
+            fieldNames[i] = pool.Utf8("k" + i);
+            fieldTypes[i] = pool.Utf8(constantTypes.get(i));
+        }
+        int codeName = pool.Utf8("Code");
+        Code[] codes = { body, run, init, clinit };
+        for (Code code : codes)
+        {
+            if (code.length > 0xffff || code.maxDepth > 0xffff)
+            {
+                throw new TooLarge("method too large");
+            }
+        }
+        if (pool.count > 0xffff)
+        {
+            throw new TooLarge("too many constants");
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xcafebabe);
+        out.writeShort(0);
+        out.writeShort(49);  //no stack map frames needed
+        out.writeShort(pool.count);
+        out.write(pool.bytes.toByteArray());
+        out.writeShort(0x0031);  //public final super
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(0);  //interfaces
+        out.writeShort(constants.size());
+        for (int i = 0; i < constants.size(); i++)
+        {
+            out.writeShort(0x0018);  //static final
+            out.writeShort(fieldNames[i]);
+            out.writeShort(fieldTypes[i]);
+            out.writeShort(0);
+        }
+        out.writeShort(methods.length);
+        for (int i = 0; i < methods.length; i++)
+        {
+            out.writeShort(methods[i][0]);
+            out.writeShort(methods[i][1]);
+            out.writeShort(methods[i][2]);
+            out.writeShort(1);  //the Code attribute
+            out.writeShort(codeName);
+            out.writeInt(12 + codes[i].length);
+            out.writeShort(codes[i].maxDepth);
+            out.writeShort(methods[i][3]);
+            out.writeInt(codes[i].length);
+            out.write(codes[i].bytes, 0, codes[i].length);
+            out.writeShort(0);  //exception table
+            out.writeShort(0);  //attributes
+        }
+        out.writeShort(0);  //class attributes
+        return bytes.toByteArray();
+    }
+
+    private int[] Method(int flags, String name, String type, int maxLocals)
+    {
+        return new int[] { flags, pool.Utf8(name), pool.Utf8(type), maxLocals };
+    }
+
+    /**
+     * Get the static field holding a constant
+     * @param value The constant
+     * @param type Its field descriptor
+     * @return The field reference
+     */
+    private int Constant(Object value, String type)
+    {
+        Integer i = constantIndex.get(value);
+        if (i == null)
+        {
+            i = constants.size();
+            constants.add(value);
+            constantTypes.add(type);
+            constantIndex.put(value, i);
+        }
+        return pool.Field(CLASS, "k" + i, constantTypes.get(i));
+    }
+
+    /**
+     * A method body being assembled, with its stack depth tracked
+     */
+    private final class Code
+    {
+        byte[] bytes = new byte[256];
+        int length;
+        int depth;
+        int maxDepth;
+
+        /**
+         * Emit code that leaves the node's value on the stack
+         */
+        void Emit(Node node)
+        {
+            Emit(node, false);
+        }
+
+        /**
+         * Emit code that leaves the node's value on the stack
+         * @param tail True if the value is the function's value, the stack is empty then
+         */
+        void Emit(Node node, boolean tail)
+        {
+            if (node instanceof Node.Constant)
+            {
+                GetStatic(Constant(((Node.Constant) node).value, "LSExp;"));
+            } else if (node instanceof Node.Local)
+            {
+                Op(0x2a);
+                Push(1);
+                Op(0xb4);  //getfield
+                U2(pool.Field("AList", "values", "[LSExp;"));
+                Int(((Node.Local) node).index);
+                Op(0x32);
+                Push(-1);
+            } else if (node instanceof Node.Dynamic)
+            {
+                Op(0x2a);
+                Push(1);
+                GetStatic(Constant(((Node.Dynamic) node).name, "LSExp;"));
+                Helper("Dynamic", "(LAList;LSExp;)LSExp;", -1);
+            } else if (node instanceof Node.Fail)
+            {
+                GetStatic(Constant(((Node.Fail) node).message, "Ljava/lang/String;"));
+                Helper("Fail", "(Ljava/lang/String;)LSExp;", 0);
+            } else if (node instanceof Node.Interpret)
+            {
+                GetStatic(Constant(((Node.Interpret) node).form, "LSExp;"));
+                Op(0x2a);
+                Push(1);
+                GetStatic(Constant(fn.owner, "LDList;"));
+                Op(0x03);  //iconst_0
+                Push(1);
+                Invoke(0xb8, "Interpreter", "EVAL", "(LSExp;LAList;LDList;Z)LSExp;", -3);
+            } else if (node instanceof Node.Cond)
+            {
+                Cond((Node.Cond) node, tail);
+            } else if (node instanceof Node.Primitive1)
+            {
+                Node.Primitive1 p = (Node.Primitive1) node;
+                Builtin(p.p, new Node[] { p.a });
+            } else if (node instanceof Node.Primitive2)
+            {
+                Node.Primitive2 p = (Node.Primitive2) node;
+                Builtin(p.p, new Node[] { p.a, p.b });
+            } else if (node instanceof Node.PrimitiveN)
+            {
+                Node.PrimitiveN p = (Node.PrimitiveN) node;
+                GetStatic(Constant(p.p, "LPrimitive;"));
+                Array(p.args);
+                Helper("Apply", "(LPrimitive;[LSExp;)LSExp;", -1);
+            } else
+            {
+                Call((Node.Call) node, tail);
+            }
+        }
+
+        void Cond(Node.Cond c, boolean tail)
+        {
+            int[] ends = new int[c.tests.length];
+            for (int i = 0; i < c.tests.length; i++)
+            {
+                Emit(c.tests[i]);
+                Invoke(0xb8, "Interpreter", "IsTrue", "(LSExp;)Z", 0);
+                int next = Branch(0x99);  //ifeq
+                Push(-1);
+                Emit(c.exps[i], tail);
+                Push(-1);  //only one branch leaves its value
+                ends[i] = Branch(0xa7);  //goto
+                Patch(next);
+            }
+            Helper("CondFail", "()LSExp;", 1);
+            for (int end : ends)
+            {
+                Patch(end);
+            }
+        }
+
+        void Builtin(Primitive p, Node[] args)
+        {
+            String helper = null;
+            String owner = "Jit";
+            if (p == Primitive.CAR) helper = "Car";
+            else if (p == Primitive.CDR) helper = "Cdr";
+            else if (p == Primitive.ATOM) helper = "Atom";
+            else if (p == Primitive.NULL) helper = "Null";
+            else if (p == Primitive.INT) helper = "Int";
+            else if (p == Primitive.CONS || p == Primitive.EQ || p == Primitive.PLUS || p == Primitive.MINUS
+                    || p == Primitive.TIMES || p == Primitive.QUOTIENT || p == Primitive.REMAINDER
+                    || p == Primitive.LESS || p == Primitive.GREATER)
+            {
+                //the two parameter builtins are static methods of SExp with the same name
+                helper = p.name.GetValue();
+                owner = "SExp";
+            }
+
+            String kind = args.length == 1 ? "Primitive$Unary" : "Primitive$Binary";
+            if (helper == null)
+            {
+                //the constant may be typed Primitive, for a PrimitiveN
+                GetStatic(Constant(p, "LPrimitive;"));
+                Op(0xc0);  //checkcast
+                U2(pool.Class(kind));
+            }
+            for (Node arg : args)
+            {
+                Emit(arg);
+            }
+            String type = args.length == 1 ? "(LSExp;)LSExp;" : "(LSExp;LSExp;)LSExp;";
+            if (helper == null)
+            {
+                Invoke(0xb6, kind, "Call", type, -args.length);  //invokevirtual
+            } else
+            {
+                Invoke(0xb8, owner, helper, type, 1 - args.length);
+            }
+        }
+
+        void Call(Node.Call c, boolean tail)
+        {
+            if (c.name == fn.name)
+            {
+                //the function calling itself, the definition cannot change while it runs
+                if (c.args.length != fn.arity)
+                {
+                    Array(c.args);
+                    Op(0x57);  //pop
+                    Push(-1);
+                    GetStatic(Constant(fn.name.GetValue(), "Ljava/lang/String;"));
+                    Int(fn.arity);
+                    Int(c.args.length);
+                    Helper("BadCount", "(Ljava/lang/String;II)LSExp;", -2);
+                    return;
+                }
+                if (Events.CALLS && !tail)
+                {
+                    //the event is left under the frame and the value, for End
+                    GetStatic(Constant(fn, "LFunction;"));
+                    Helper("Begin", "(LFunction;)LEvents$Call;", 0);
+                }
+                Op(0x2a);
+                Push(1);
+                GetStatic(Constant(fn.pars, "LSExp;"));
+                Array(c.args);
+                Helper("Frame", "(LAList;LSExp;[LSExp;)LAList;", -2);
+                if (tail)
+                {
+                    //a tail call of itself is a jump back to the start with the new frame
+                    Op(0x4b);  //astore_0
+                    Push(-1);
+                    int at = length;
+                    if (at > Short.MAX_VALUE)
+                    {
+                        throw new TooLarge("branch too far");
+                    }
+                    Op(0xa7);
+                    U2(-at);
+                    Push(1);  //as if the call had left its value
+                    return;
+                }
+                if (fn.owner.memo != null)
+                {
+                    //look in the memo table first and keep what the call gives
+                    Op(0x4c);  //astore_1
+                    Push(-1);
+                    GetStatic(Constant(fn, "LFunction;"));
+                    Op(0x2b);
+                    Push(1);
+                    Helper("Cached", "(LFunction;LAList;)LSExp;", -1);
+                    Op(0x59);
+                    Push(1);
+                    int found = Branch(0xc7);  //ifnonnull
+                    Push(-1);
+                    Op(0x57);
+                    Push(-1);
+                    Op(0x2b);
+                    Push(1);
+                    Invoke(0xb8, CLASS, "invoke", BODY, 0);
+                    Helper("Finish", "(LSExp;)LSExp;", 0);
+                    GetStatic(Constant(fn, "LFunction;"));
+                    Op(0x2b);
+                    Push(1);
+                    Helper("Keep", "(LSExp;LFunction;LAList;)LSExp;", -2);
+                    Patch(found);
+                } else
+                {
+                    Invoke(0xb8, CLASS, "invoke", BODY, 0);
+                    Helper("Finish", "(LSExp;)LSExp;", 0);
+                }
+                if (Events.CALLS)
+                {
+                    Helper("End", "(LEvents$Call;LSExp;)LSExp;", -1);
+                }
+                return;
+            }
+            GetStatic(Constant(c.site, "LCallSite;"));
+            GetStatic(Constant(fn.owner, "LDList;"));
+            Helper("Resolve", "(LCallSite;LDList;)LFunction;", -1);
+            Array(c.args);
+            Op(0x2a);
+            Push(1);
+            //a tail call of another function is handed back to the caller's loop
+            Helper(tail ? "TailCall" : "Call", "(LFunction;[LSExp;LAList;)LSExp;", -2);
+        }
+
+        /**
+         * Emit code that evaluates the nodes into a new array
+         */
+        void Array(Node[] args)
+        {
+            Int(args.length);
+            Op(0xbd);  //anewarray
+            U2(pool.Class("SExp"));
+            for (int i = 0; i < args.length; i++)
+            {
+                Op(0x59);  //dup
+                Push(1);
+                Int(i);
+                Emit(args[i]);
+                Op(0x53);  //aastore
+                Push(-3);
+            }
+        }
+
+        void GetStatic(int field)
+        {
+            Op(0xb2);
+            U2(field);
+            Push(1);
+        }
+
+        void Helper(String name, String type, int effect)
+        {
+            Invoke(0xb8, "Jit", name, type, effect);
+        }
+
+        void Invoke(int op, String owner, String name, String type, int effect)
+        {
+            Op(op);
+            U2(pool.Method(owner, name, type));
+            Push(effect);
+        }
+
+        void Int(int value)
+        {
+            if (value <= 5)
+            {
+                Op(0x03 + value);  //iconst_n
+            } else if (value <= 127)
+            {
+                Op(0x10, value);   //bipush
+            } else
+            {
+                Op(0x11);          //sipush
+                U2(value);
+            }
+            Push(1);
+        }
+
+        int Branch(int op)
+        {
+            int at = length;
+            Op(op);
+            U2(0);
+            return at;
+        }
+
+        void Patch(int branch)
+        {
+            int offset = length - branch;
+            if (offset > Short.MAX_VALUE)
+            {
+                throw new TooLarge("branch too far");
+            }
+            bytes[branch + 1] = (byte) (offset >> 8);
+            bytes[branch + 2] = (byte) offset;
+        }
+
+        void Push(int n)
+        {
+            depth += n;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+
+        void Op(int... b)
+        {
+            for (int x : b)
+            {
+                if (length == bytes.length)
+                {
+                    bytes = Arrays.copyOf(bytes, length * 2);
+                }
+                bytes[length++] = (byte) x;
+            }
+        }
+
+        void U2(int value)
+        {
+            Op(value >> 8, value);
+        }
+    }
+
+    /**
+     * The class file constant pool
+     */
+    private static final class Pool
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        final HashMap<String, Integer> entries = new HashMap<String, Integer>();
+        int count = 1;
+
+        int Utf8(String s)
+        {
+            Integer i = entries.get("U" + s);
+            if (i != null)
+            {
+                return i;
+            }
+            return Add("U" + s, 1, s, 0, 0);
+        }
+
+        int Class(String name)
+        {
+            return Ref("C" + name, 7, Utf8(name), -1);
+        }
+
+        int String(String s)
+        {
+            return Ref("S" + s, 8, Utf8(s), -1);
+        }
+
+        int Field(String owner, String name, String type)
+        {
+            return Ref("F" + owner + "." + name + type, 9, Class(owner), NameAndType(name, type));
+        }
+
+        int Method(String owner, String name, String type)
+        {
+            return Ref("M" + owner + "." + name + type, 10, Class(owner), NameAndType(name, type));
+        }
+
+        int NameAndType(String name, String type)
+        {
+            return Ref("N" + name + type, 12, Utf8(name), Utf8(type));
+        }
+
+        private int Ref(String key, int tag, int a, int b)
+        {
+            Integer i = entries.get(key);
+            if (i != null)
+            {
+                return i;
+            }
+            return Add(key, tag, null, a, b);
+        }
+
+        private int Add(String key, int tag, String utf, int a, int b)
+        {
+            try
+            {
+                out.writeByte(tag);
+                if (utf != null)
+                {
+                    out.writeUTF(utf);
+                } else
+                {
+                    out.writeShort(a);
+                    if (b >= 0)
+                    {
+                        out.writeShort(b);
+                    }
+                }
+            } catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+            entries.put(key, count);
+            return count++;
+        }
+    }
+
+    //runtime helpers called by the generated code
+
+    static SExp Dynamic(AList frame, SExp name) throws Exception
+    {
+        SExp binding = frame.GetBindingPair(name);
+        if (binding == null)
+        {
+            throw new Exception("ERROR IN EVAL: " + name.GetValue() + " is not bound");
+        }
+        return binding;
+    }
+
+    static SExp Fail(String message) throws Exception
+    {
+        throw new Exception(message);
+    }
+
+    static SExp CondFail() throws Exception
+    {
+        throw new Exception("ERROR IN EVCON: All conditionals cannot be null");
+    }
+
+    static SExp BadCount(String name, int arity, int given) throws Exception
+    {
+        throw Interpreter.ParamCountError(name, arity, given);
+    }
+
+    static SExp Car(SExp a) throws Exception
+    {
+        return Primitive.CAR.Call(a);
+    }
+
+    static SExp Cdr(SExp a) throws Exception
+    {
+        return Primitive.CDR.Call(a);
+    }
+
+    static SExp Atom(SExp a)
+    {
+        return a.IsAtomic() ? SExp.T : SExp.NIL;
+    }
+
+    static SExp Null(SExp a)
+    {
+        return a.IsNull() ? SExp.T : SExp.NIL;
+    }
+
+    static SExp Int(SExp a)
+    {
+        return a.IsInteger() ? SExp.T : SExp.NIL;
+    }
+
+    static SExp Apply(Primitive p, SExp[] args) throws Exception
+    {
+        SExp x = SExp.NIL;
+        for (int i = args.length - 1; i >= 0; i--)
+        {
+            x = SExp.Pair(args[i], x);
+        }
+        return p.Apply(x);
+    }
+
+    static void Poll() throws Exception
+    {
+        Interpreter.Poll();
+    }
+
+    static Function Resolve(CallSite site, DList dList) throws Exception
+    {
+        Function fn = site.Lookup(dList);
+        if (fn == null)
+        {
+            throw new Exception("ERROR IN EVAL: '" + site.CAR().GetValue() + "' is not defined");
+        }
+        return fn;
+    }
+
+    static SExp Call(Function fn, SExp[] values, AList frame) throws Exception
+    {
+        if (values.length != fn.arity)
+        {
+            throw Interpreter.ParamCountError(fn.name.GetValue(), fn.arity, values.length);
+        }
+        return fn.Invoke(new AList(AList.Trim(frame, fn.pars), fn.pars, values));
+    }
+
+    static SExp TailCall(Function fn, SExp[] values, AList frame) throws Exception
+    {
+        if (values.length != fn.arity)
+        {
+            throw Interpreter.ParamCountError(fn.name.GetValue(), fn.arity, values.length);
+        }
+        return new TailCall(fn, new AList(AList.Trim(frame, fn.pars), fn.pars, values));
+    }
+
+    static Events.Call Begin(Function fn)
+    {
+        return Events.Begin(fn);
+    }
+
+    static SExp End(Events.Call event, SExp value)
+    {
+        Events.End(event);
+        return value;
+    }
+
+    static SExp Finish(SExp value) throws Exception
+    {
+        if (value instanceof TailCall)
+        {
+            TailCall call = (TailCall) value;
+            return call.fn.Invoke(call.frame);
+        }
+        return value;
+    }
+
+    static SExp Cached(Function fn, AList frame)
+    {
+        Memo memo = fn.owner.memo;
+        return memo.IsPure(fn) ? memo.Get(fn, frame.values) : null;
+    }
+
+    static SExp Keep(SExp value, Function fn, AList frame)
+    {
+        Memo memo = fn.owner.memo;
+        if (memo.IsPure(fn))
+        {
+            memo.Put(fn, frame.values, value);
+        }
+        return value;
+    }
+
+    static AList Frame(AList parent, SExp pars, SExp[] values)
+    {
+        return new AList(AList.Trim(parent, pars), pars, values);
+    }
+}
@@ -0,0 +1,14 @@
+/**
+ * LISP function body compiled to JVM bytecode by Jit.
+ * Each compiled function is a hidden class extending this one.
+ */
+public abstract class JitCode
+{
+    /**
+     * Run the body
+     * @param frame The frame holding the function's parameters
+     * @return The value
+     * @throws java.lang.Exception
+     */
+    public abstract SExp Run(AList frame) throws Exception;
+}
@@ -0,0 +1,149 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+
+/**
+ * LISP tokenizer, splits characters from a Reader into the tokens SExp.INPUT
+ * parses: "(", ")", "." and atoms.
+ * An atom runs to the next parenthesis or whitespace (space, tab, carriage
+ * return, newline); a "." starts a token of its own but does not end one.
+ * Characters are read a buffer at a time, and each lexer has its own one
+ * token lookahead, so readers on different threads do not interfere.  A lexer
+ * over bytes (a mapped file) decodes them straight into its buffer.
+ */
+public final class Lexer
+{
+    private final static int BUFFER_CHARS = 8192;
+
+    private final Reader in;
+    private final ByteBuffer bytes;         //or the bytes to decode, when there is no Reader
+    private final CharsetDecoder decoder;
+    private final char[] buffer = new char[BUFFER_CHARS];
+    private int position;  //the next character to hand out
+    private int limit;     //the end of the characters read, -1 at end of input
+
+    private final StringBuilder atom = new StringBuilder();
+    private String pushed;
+
+    public Lexer(Reader in)
+    {
+        this.in = in;
+        this.bytes = null;
+        this.decoder = null;
+    }
+
+    public Lexer(ByteBuffer bytes, Charset charset)
+    {
+        this.in = null;
+        this.bytes = bytes;
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Get the next token
+     * @return The token, or "" at end of input
+     * @throws java.io.IOException
+     */
+    public String Next() throws IOException
+    {
+        if (pushed != null)
+        {
+            String token = pushed;
+            pushed = null;
+            return token;
+        }
+
+        int c;
+        do
+        {
+            c = Read();
+        } while (IsSpace(c));  //input can span lines
+
+        switch (c)
+        {
+            case -1:
+                return "";
+            case '(':
+                return "(";
+            case ')':
+                return ")";
+            case '.':
+                return ".";
+        }
+
+        //an atom, the parenthesis after it is left for the next token
+        atom.setLength(0);
+        do
+        {
+            atom.append((char) c);
+            c = Peek();
+            if (c == -1 || c == '(' || c == ')')
+            {
+                break;
+            }
+            position++;
+        } while (!IsSpace(c));
+        return atom.toString();
+    }
+
+    /**
+     * Hand a token back, Next returns it again
+     * @param token The token
+     */
+    public void PushBack(String token)
+    {
+        pushed = token;
+    }
+
+    private static boolean IsSpace(int c)
+    {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    private int Read() throws IOException
+    {
+        int c = Peek();
+        if (c != -1)
+        {
+            position++;
+        }
+        return c;
+    }
+
+    private int Peek() throws IOException
+    {
+        if (position == limit)
+        {
+            if (limit == -1)
+            {
+                return -1;
+            }
+            limit = in != null ? in.read(buffer, 0, buffer.length) : Decode();
+            position = 0;
+            if (limit <= 0)
+            {
+                limit = -1;  //at the end, and stays there
+                position = -1;
+                return -1;
+            }
+        }
+        return buffer[position];
+    }
+
+    /**
+     * Decode the next buffer full of bytes
+     * @return The number of characters, -1 at the end of the bytes
+     */
+    private int Decode()
+    {
+        CharBuffer chars = CharBuffer.wrap(buffer);
+        decoder.decode(bytes, chars, true);
+        if (chars.position() == 0)
+        {
+            decoder.flush(chars);
+        }
+        return chars.position() == 0 ? -1 : chars.position();
+    }
+}
@@ -0,0 +1,25 @@
+/**
+ * LISP reference to a parameter of the enclosing function.
+ * AList.Resolve puts these in a function body in place of the parameter's
+ * symbol, so EVAL reads the value straight out of the activation frame.
+ */
+public final class LocalRef extends SExp
+{
+    final Symbol name;
+    final int index;
+
+    LocalRef(Symbol name, int index)
+    {
+        this.name = name;
+        this.index = index;
+    }
+
+    /**
+     * Get the name of the parameter
+     * @return The name
+     */
+    public String GetValue()
+    {
+        return name.GetValue();
+    }
+}
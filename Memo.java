@@ -0,0 +1,496 @@
+import java.util.*;
+
+/**
+ * LISP memo table, the results of pure user functions keyed on their
+ * arguments.
+ * A function is pure when its result depends only on its arguments: it uses
+ * no variable but its own parameters and calls only builtins and other pure
+ * functions (all the builtins are).  Purity is worked out on a function's
+ * first call and forgotten, with the function's results, when the function or
+ * anything it calls is redefined.  Arguments are compared by structure.  The
+ * table evicts its least recently used results to stay within an entry count
+ * and an estimated size in bytes, and does not keep a call whose arguments and
+ * result hold more than a few hundred nodes.
+ */
+public final class Memo
+{
+    //estimated sizes, in bytes
+    private final static int CONS_BYTES = 24;
+    private final static int ATOM_BYTES = 24;
+    private final static int ENTRY_BYTES = 64;
+
+    //nodes one entry's arguments and result may hold; a larger one is not
+    //kept, so sizing it stops after this many whatever the table's size
+    private final static int ENTRY_NODES = 512;
+
+    //nodes looked at for a hash code, the rest of a large argument is left out
+    private final static int HASH_NODES = 64;
+
+    private final DList dList;
+    private final int maxEntries;
+    private final long maxBytes;
+
+    private final LinkedHashMap<Key, Result> results = new LinkedHashMap<Key, Result>(16, 0.75f, true);
+    private final IdentityHashMap<Function, Boolean> purity = new IdentityHashMap<Function, Boolean>();
+    //for each name, the functions whose purity was worked out from its definition
+    private final HashMap<Symbol, Set<Function>> dependents = new HashMap<Symbol, Set<Function>>();
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public Memo(DList dList, int maxEntries, long maxBytes)
+    {
+        this.dList = dList;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * A function and its arguments
+     */
+    private static final class Key
+    {
+        final Function fn;
+        final SExp[] args;
+        final int hash;
+
+        Key(Function fn, SExp[] args)
+        {
+            this.fn = fn;
+            this.args = args;
+            int h = System.identityHashCode(fn);
+            for (SExp arg : args)
+            {
+                h = 31 * h + Hash(arg);
+            }
+            this.hash = h;
+        }
+
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Key))
+            {
+                return false;
+            }
+            Key k = (Key) o;
+            if (k.fn != fn || k.hash != hash || k.args.length != args.length)
+            {
+                return false;
+            }
+            for (int i = 0; i < args.length; i++)
+            {
+                if (!Same(args[i], k.args[i]))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A cached value and the bytes charged for it
+     */
+    private static final class Result
+    {
+        final SExp value;
+        final long bytes;
+
+        Result(SExp value, long bytes)
+        {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Calls that all have the result of one evaluation, like a pure function
+     * and the pure function it calls in tail position.  The calls are kept
+     * once the result is known, so a tail call need not wait for its value
+     */
+    final class Pending
+    {
+        private final ArrayList<Function> fns = new ArrayList<Function>();
+        private final ArrayList<SExp[]> args = new ArrayList<SExp[]>();
+
+        /**
+         * Note a call, beyond the table's size it would only be evicted
+         * @param fn The function, it must be pure
+         * @param values The arguments
+         */
+        void Add(Function fn, SExp[] values)
+        {
+            if (fns.size() < maxEntries)
+            {
+                fns.add(fn);
+                args.add(values);
+            }
+        }
+
+        /**
+         * Keep the result of every call
+         * @param value The result
+         */
+        void Store(SExp value)
+        {
+            for (int i = 0; i < fns.size(); i++)
+            {
+                Put(fns.get(i), args.get(i), value);
+            }
+        }
+    }
+
+    /**
+     * Can the results of a function be kept
+     * @param fn The function
+     * @return true if it is pure
+     */
+    public synchronized boolean IsPure(Function fn)
+    {
+        Boolean pure = purity.get(fn);
+        if (pure == null)
+        {
+            pure = Analyze(fn);
+            purity.put(fn, pure);
+        }
+        return pure;
+    }
+
+    /**
+     * Look up the result of a call
+     * @param fn The function, it must be pure
+     * @param args The arguments
+     * @return The result, or null if it is not in the table
+     */
+    public synchronized SExp Get(Function fn, SExp[] args)
+    {
+        Result r = results.get(new Key(fn, args));
+        if (r == null)
+        {
+            misses++;
+            return null;
+        }
+        hits++;
+        return r.value;
+    }
+
+    /**
+     * Keep the result of a call, unless it is too large to: over ENTRY_NODES
+     * nodes, or over the table's bytes
+     * @param fn The function, it must be pure
+     * @param args The arguments
+     * @param value The result
+     */
+    public synchronized void Put(Function fn, SExp[] args, SExp value)
+    {
+        if (value == null || fn.replaced)
+        {
+            return;
+        }
+        long limit = Math.min(maxBytes, ENTRY_BYTES + (long) ENTRY_NODES * CONS_BYTES);
+        long size = ENTRY_BYTES + Size(value, limit);
+        for (int i = 0; i < args.length && size <= limit; i++)
+        {
+            size += Size(args[i], limit - size);
+        }
+        if (size > limit)
+        {
+            return;
+        }
+        Result old = results.put(new Key(fn, args.clone()), new Result(value, size));
+        bytes += size - (old == null ? 0 : old.bytes);
+
+        Iterator<Result> eldest = results.values().iterator();
+        while (results.size() > maxEntries || bytes > maxBytes)
+        {
+            bytes -= eldest.next().bytes;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Forget what depended on the definition of a name, called when the
+     * name is defined or redefined
+     * @param name The name
+     */
+    public synchronized void Redefined(Symbol name)
+    {
+        Set<Function> stale = dependents.remove(name);
+        if (stale == null)
+        {
+            return;
+        }
+        for (Function fn : stale)
+        {
+            purity.remove(fn);
+        }
+        Iterator<Map.Entry<Key, Result>> it = results.entrySet().iterator();
+        while (it.hasNext())
+        {
+            Map.Entry<Key, Result> e = it.next();
+            if (stale.contains(e.getKey().fn))
+            {
+                bytes -= e.getValue().bytes;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Get every argument and result in the table, the roots Arena.Collect
+     * keeps
+     * @return The S expressions
+     */
+    synchronized List<SExp> Values()
+    {
+        ArrayList<SExp> values = new ArrayList<SExp>();
+        for (Map.Entry<Key, Result> e : results.entrySet())
+        {
+            Collections.addAll(values, e.getKey().args);
+            values.add(e.getValue().value);
+        }
+        return values;
+    }
+
+    /**
+     * Get the lookups that found a result
+     * @return The number of hits
+     */
+    public synchronized long Hits()
+    {
+        return hits;
+    }
+
+    /**
+     * Get the lookups that found none
+     * @return The number of misses
+     */
+    public synchronized long Misses()
+    {
+        return misses;
+    }
+
+    /**
+     * Describe the table's use, for -stats
+     * @return One line
+     */
+    public synchronized String Stats()
+    {
+        return "memo: " + hits + " hits, " + misses + " misses, " + results.size() + " entries, "
+                + bytes + " bytes, " + evictions + " evictions";
+    }
+
+    /**
+     * Work out whether a function is pure from every function it can reach,
+     * noting each name the answer depended on
+     */
+    private boolean Analyze(Function fn)
+    {
+        boolean pure = true;
+        HashSet<Symbol> seen = new HashSet<Symbol>();
+        ArrayDeque<Function> todo = new ArrayDeque<Function>();
+        seen.add(fn.name);
+        todo.push(fn);
+        Depend(fn.name, fn);
+        while (!todo.isEmpty())
+        {
+            Function f = todo.pop();
+            ArrayList<Symbol> callees = new ArrayList<Symbol>();
+            if (!Scan(f.body, callees))
+            {
+                pure = false;
+            }
+            for (Symbol callee : callees)
+            {
+                if (seen.add(callee))
+                {
+                    Depend(callee, fn);
+                    Function def = dList.GetFunctionDefinition(callee);
+                    if (def == null)
+                    {
+                        pure = false;  //until it is defined
+                    } else
+                    {
+                        todo.push(def);
+                    }
+                }
+            }
+        }
+        return pure;
+    }
+
+    private void Depend(Symbol name, Function fn)
+    {
+        Set<Function> fns = dependents.get(name);
+        if (fns == null)
+        {
+            fns = Collections.newSetFromMap(new IdentityHashMap<Function, Boolean>());
+            dependents.put(name, fns);
+        }
+        fns.add(fn);
+    }
+
+    /**
+     * Look through a resolved function body
+     * @param exp The expression
+     * @param callees Gets the user functions it calls
+     * @return false if it uses a variable that is not a parameter, or is a
+     * form that can only fail
+     */
+    private static boolean Scan(SExp exp, ArrayList<Symbol> callees)
+    {
+        if (exp instanceof LocalRef || exp == SExp.T || exp == SExp.NIL || exp.IsInteger())
+        {
+            return true;
+        }
+        if (exp.IsAtomic())
+        {
+            return false;  //a free variable
+        }
+        SExp f = exp.CAR();
+        if (f == Interpreter.QUOTE)
+        {
+            return true;
+        }
+        if (f == Interpreter.COND)
+        {
+            for (SExp clauses = exp.CDR(); !clauses.IsAtomic(); clauses = clauses.CDR())
+            {
+                if (!ScanList(clauses.CAR(), callees))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (!(f instanceof Symbol) || f == Interpreter.DEFUN)
+        {
+            return false;
+        }
+        if (Primitive.Lookup(f) == null)
+        {
+            callees.add((Symbol) f);
+        }
+        return ScanList(exp.CDR(), callees);
+    }
+
+    private static boolean ScanList(SExp l, ArrayList<Symbol> callees)
+    {
+        for (; !l.IsAtomic(); l = l.CDR())
+        {
+            if (!Scan(l.CAR(), callees))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hash an S expression by structure, looking at no more than HASH_NODES
+     * of its nodes
+     */
+    private static int Hash(SExp s)
+    {
+        int h = 1;
+        ArrayDeque<SExp> todo = new ArrayDeque<SExp>();
+        todo.push(s);
+        for (int n = 0; n < HASH_NODES && !todo.isEmpty(); n++)
+        {
+            SExp x = todo.pop();
+            if (x instanceof Fixnum)
+            {
+                h = 31 * h + Long.hashCode(((Fixnum) x).value);
+            } else if (x instanceof Bignum)
+            {
+                h = 31 * h + ((Bignum) x).value.hashCode();
+            } else if (x.IsAtomic())
+            {
+                h = 31 * h + System.identityHashCode(x);
+            } else
+            {
+                h = 31 * h + 17;
+                todo.push(x.CDR());
+                todo.push(x.CAR());
+            }
+        }
+        return h;
+    }
+
+    /**
+     * Are two S expressions the same structure, with equal integers and the
+     * same symbols
+     */
+    private static boolean Same(SExp a, SExp b)
+    {
+        ArrayDeque<SExp> todo = new ArrayDeque<SExp>();
+        todo.push(a);
+        todo.push(b);
+        while (!todo.isEmpty())
+        {
+            SExp y = todo.pop();
+            SExp x = todo.pop();
+            if (x == y)
+            {
+                continue;
+            }
+            if (x instanceof Fixnum && y instanceof Fixnum)
+            {
+                if (((Fixnum) x).value != ((Fixnum) y).value)
+                {
+                    return false;
+                }
+            } else if (x instanceof Bignum && y instanceof Bignum)
+            {
+                if (!((Bignum) x).value.equals(((Bignum) y).value))
+                {
+                    return false;
+                }
+            } else if (x.IsAtomic() || y.IsAtomic())
+            {
+                return false;  //different atoms, or an atom and a cons
+            } else
+            {
+                todo.push(x.CDR());
+                todo.push(y.CDR());
+                todo.push(x.CAR());
+                todo.push(y.CAR());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Estimate the bytes an S expression holds, counting shared parts each
+     * time they are reached
+     * @param limit Stop counting past this
+     * @return The estimate, more than limit if it is too large
+     */
+    private static long Size(SExp s, long limit)
+    {
+        long size = 0;
+        ArrayDeque<SExp> todo = new ArrayDeque<SExp>();
+        todo.push(s);
+        while (!todo.isEmpty() && size <= limit)
+        {
+            SExp x = todo.pop();
+            if (x.IsAtomic())
+            {
+                size += ATOM_BYTES;
+            } else
+            {
+                size += CONS_BYTES;
+                todo.push(x.CDR());
+                todo.push(x.CAR());
+            }
+        }
+        return size;
+    }
+}
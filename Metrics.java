@@ -0,0 +1,176 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+/**
+ * LISP interpreter metrics for JMX, see InterpreterMXBean.
+ * Sessions are registered as they start and held weakly, so the function and
+ * cache counts are of the sessions still open.  Starting the JMX machinery
+ * takes a good part of a second, so the MBean is only registered by -serve or
+ * with -Dlisp.jmx=true, and then by a daemon thread, so it does not hold up
+ * the first form; the counts are kept either way.
+ */
+final class Metrics implements InterpreterMXBean
+{
+    final static LongAdder forms = new LongAdder();
+    final static LongAdder errors = new LongAdder();
+    final static LongAdder conses = new LongAdder();  //counted by SExp.CONS
+
+    final static boolean JMX = Boolean.getBoolean("lisp.jmx");
+
+    //the DLists of the open sessions
+    private final static Map<DList, Boolean> sessions = Collections.synchronizedMap(new WeakHashMap<DList, Boolean>());
+    private static boolean registered;
+
+    static
+    {
+        if (JMX)
+        {
+            Register();
+        }
+    }
+
+    /**
+     * Register the MBean with the platform MBean server, if it is not already
+     */
+    static synchronized void Register()
+    {
+        if (registered)
+        {
+            return;
+        }
+        registered = true;
+        Thread register = new Thread(() ->
+        {
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new Metrics(),
+                        new ObjectName("rzel.lisp:type=Interpreter"));
+            } catch (Exception e)
+            {
+                System.err.println("cannot register the interpreter MBean: " + e);
+            }
+        }, "lisp-metrics");
+        register.setDaemon(true);
+        register.start();
+    }
+
+    /**
+     * Count a session's definitions and caches in the metrics
+     * @param dList The session's DList
+     */
+    static void Opened(DList dList)
+    {
+        sessions.put(dList, Boolean.TRUE);
+    }
+
+    private static List<DList> Sessions()
+    {
+        synchronized (sessions)
+        {
+            return new ArrayList<DList>(sessions.keySet());
+        }
+    }
+
+    public long getFormsEvaluated()
+    {
+        return forms.sum();
+    }
+
+    public long getErrors()
+    {
+        return errors.sum();
+    }
+
+    public long getConsCells()
+    {
+        return conses.sum();
+    }
+
+    public int getSessions()
+    {
+        return Sessions().size();
+    }
+
+    public int getFunctions()
+    {
+        int functions = 0;
+        for (DList dList : Sessions())
+        {
+            functions += dList.Size();
+        }
+        return functions;
+    }
+
+    public long getCallSiteHits()
+    {
+        long hits = 0;
+        for (DList dList : Sessions())
+        {
+            hits += dList.siteHits.sum();
+        }
+        return hits;
+    }
+
+    public long getCallSiteMisses()
+    {
+        long misses = 0;
+        for (DList dList : Sessions())
+        {
+            misses += dList.siteMisses.sum();
+        }
+        return misses;
+    }
+
+    public double getCallSiteHitRate()
+    {
+        long hits = getCallSiteHits();
+        return hits / (double) (hits + getCallSiteMisses());
+    }
+
+    public long getMemoHits()
+    {
+        long hits = 0;
+        for (DList dList : Sessions())
+        {
+            Memo memo = dList.memo;
+            if (memo != null)
+            {
+                hits += memo.Hits();
+            }
+        }
+        return hits;
+    }
+
+    public long getMemoMisses()
+    {
+        long misses = 0;
+        for (DList dList : Sessions())
+        {
+            Memo memo = dList.memo;
+            if (memo != null)
+            {
+                misses += memo.Misses();
+            }
+        }
+        return misses;
+    }
+
+    public double getMemoHitRate()
+    {
+        long hits = getMemoHits();
+        return hits / (double) (hits + getMemoMisses());
+    }
+
+    public String ProfileReport()
+    {
+        return Profiler.COUNTING ? Profiler.Report() : "not profiling, run with -Dlisp.profile=true";
+    }
+
+    public void WriteSamples() throws IOException
+    {
+        Sampler.Write();
+    }
+}
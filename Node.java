@@ -0,0 +1,330 @@
+/**
+ * LISP executable node, the output of NodeCompiler.
+ * An expression is analyzed once into a tree of nodes, each specialized for
+ * one kind of form, and executing the tree gives the same result (or the same
+ * error) that EVAL gives for the expression.
+ */
+public abstract class Node
+{
+    /**
+     * Evaluate the node
+     * @param frame The frame of the function the node belongs to
+     * @return The value
+     * @throws java.lang.Exception
+     */
+    public abstract SExp Execute(AList frame) throws Exception;
+
+    /**
+     * A self evaluating atom or a quoted expression
+     */
+    static final class Constant extends Node
+    {
+        final SExp value;
+
+        Constant(SExp value)
+        {
+            this.value = value;
+        }
+
+        public SExp Execute(AList frame)
+        {
+            return value;
+        }
+    }
+
+    /**
+     * A parameter of the enclosing function
+     */
+    static final class Local extends Node
+    {
+        final int index;
+
+        Local(int index)
+        {
+            this.index = index;
+        }
+
+        public SExp Execute(AList frame)
+        {
+            return frame.values[index];
+        }
+    }
+
+    /**
+     * A free variable, looked up by name through the calling frames
+     */
+    static final class Dynamic extends Node
+    {
+        final SExp name;
+
+        Dynamic(SExp name)
+        {
+            this.name = name;
+        }
+
+        public SExp Execute(AList frame) throws Exception
+        {
+            SExp binding = frame.GetBindingPair(name);
+            if (binding == null)
+            {
+                throw new Exception("ERROR IN EVAL: " + name.GetValue() + " is not bound");
+            }
+            return binding;
+        }
+    }
+
+    /**
+     * A form that is known to fail before anything in it is evaluated
+     */
+    static final class Fail extends Node
+    {
+        final String message;
+
+        Fail(String message)
+        {
+            this.message = message;
+        }
+
+        public SExp Execute(AList frame) throws Exception
+        {
+            throw new Exception(message);
+        }
+    }
+
+    /**
+     * A form the compiler does not specialize, left to EVAL
+     */
+    static final class Interpret extends Node
+    {
+        final SExp form;
+        final DList dList;
+
+        Interpret(SExp form, DList dList)
+        {
+            this.form = form;
+            this.dList = dList;
+        }
+
+        public SExp Execute(AList frame) throws Exception
+        {
+            return Interpreter.EVAL(form, frame, dList, false);
+        }
+    }
+
+    /**
+     * COND, as a chain of tests
+     */
+    static final class Cond extends Node
+    {
+        final Node[] tests;
+        final Node[] exps;
+
+        Cond(Node[] tests, Node[] exps)
+        {
+            this.tests = tests;
+            this.exps = exps;
+        }
+
+        public SExp Execute(AList frame) throws Exception
+        {
+            for (int i = 0; i < tests.length; i++)
+            {
+                if (Interpreter.IsTrue(tests[i].Execute(frame)))
+                {
+                    return exps[i].Execute(frame);
+                }
+            }
+            throw new Exception("ERROR IN EVCON: All conditionals cannot be null");
+        }
+    }
+
+    /**
+     * Call of a one parameter builtin with one argument
+     */
+    static final class Primitive1 extends Node
+    {
+        final Primitive.Unary p;
+        final Node a;
+
+        Primitive1(Primitive.Unary p, Node a)
+        {
+            this.p = p;
+            this.a = a;
+        }
+
+        public SExp Execute(AList frame) throws Exception
+        {
+            return p.Call(a.Execute(frame));
+        }
+    }
+
+    /**
+     * Call of a two parameter builtin with two arguments
+     */
+    static final class Primitive2 extends Node
+    {
+        final Primitive.Binary p;
+        final Node a;
+        final Node b;
+
+        Primitive2(Primitive.Binary p, Node a, Node b)
+        {
+            this.p = p;
+            this.a = a;
+            this.b = b;
+        }
+
+        public SExp Execute(AList frame) throws Exception
+        {
+            SExp x = a.Execute(frame);
+            return p.Call(x, b.Execute(frame));
+        }
+    }
+
+    /**
+     * Any other call of a builtin, the argument count is checked by Apply
+     */
+    static final class PrimitiveN extends Node
+    {
+        final Primitive p;
+        final Node[] args;
+
+        PrimitiveN(Primitive p, Node[] args)
+        {
+            this.p = p;
+            this.args = args;
+        }
+
+        public SExp Execute(AList frame) throws Exception
+        {
+            SExp x = SExp.NIL;
+            SExp[] values = EvaluateAll(args, frame);
+            for (int i = values.length - 1; i >= 0; i--)
+            {
+                x = SExp.Pair(values[i], x);
+            }
+            return p.Apply(x);
+        }
+    }
+
+    /**
+     * Call of a user function, looked up when the call is made.  A call that
+     * is the value of the function body it is in is handed back to the loop
+     * running that body as a TailCall, the way EVAL makes it in place
+     */
+    static final class Call extends Node
+    {
+        final CallSite site;
+        final SExp name;
+        final Node[] args;
+        final DList dList;
+        final boolean tail;
+
+        Call(CallSite site, Node[] args, DList dList, boolean tail)
+        {
+            this.site = site;
+            this.name = site.CAR();
+            this.args = args;
+            this.dList = dList;
+            this.tail = tail;
+        }
+
+        public SExp Execute(AList frame) throws Exception
+        {
+            Interpreter.Poll();
+            Function fn = site.Lookup(dList);
+            if (fn == null)
+            {
+                throw new Exception("ERROR IN EVAL: '" + name.GetValue() + "' is not defined");
+            }
+            SExp[] values = EvaluateAll(args, frame);
+            if (values.length != fn.arity)
+            {
+                throw Interpreter.ParamCountError(name.GetValue(), fn.arity, values.length);
+            }
+            AList callee = new AList(AList.Trim(frame, fn.pars), fn.pars, values);
+            if (tail)
+            {
+                return new TailCall(fn, callee);
+            }
+            if (Profiler.ON)
+            {
+                Profiler.Enter(fn);
+                SExp value = Invoke(fn, callee);
+                Profiler.Exit();
+                return value;
+            }
+            return Invoke(fn, callee);
+        }
+
+        /**
+         * Run a function body, then the bodies of the tail calls it hands
+         * back, in a loop.  A pure function's result is looked up and kept
+         * around each of them, as EVAL does
+         */
+        private SExp Invoke(Function fn, AList callee) throws Exception
+        {
+            Events.Call event = Events.CALLS ? Events.Begin(fn) : null;
+            Memo memo = dList.memo;
+            Memo.Pending pending = null;  //pure calls whose result is this value
+            SExp value;
+            while (true)
+            {
+                if (memo != null && memo.IsPure(fn))
+                {
+                    value = memo.Get(fn, callee.values);
+                    if (value != null)
+                    {
+                        break;
+                    }
+                    if (pending == null)
+                    {
+                        pending = memo.new Pending();
+                    }
+                    pending.Add(fn, callee.values);
+                }
+                JitCode code = fn.Tier();
+                value = code != null ? code.Run(callee) : fn.node.Execute(callee);
+                if (!(value instanceof TailCall))
+                {
+                    break;
+                }
+                TailCall call = (TailCall) value;
+                if (Profiler.ON)
+                {
+                    //the tail call leaves its caller first
+                    Profiler.Exit();
+                    Profiler.Enter(call.fn);
+                }
+                fn = call.fn;
+                callee = call.frame;
+            }
+            if (pending != null)
+            {
+                pending.Store(value);
+            }
+            if (Events.CALLS)
+            {
+                Events.End(event);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Evaluate arguments left to right
+     * @param args The argument nodes
+     * @param frame The current frame
+     * @return The values
+     * @throws java.lang.Exception
+     */
+    static SExp[] EvaluateAll(Node[] args, AList frame) throws Exception
+    {
+        SExp[] values = new SExp[args.length];
+        for (int i = 0; i < args.length; i++)
+        {
+            values[i] = args[i].Execute(frame);
+        }
+        return values;
+    }
+}
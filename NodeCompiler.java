@@ -0,0 +1,197 @@
+import java.util.*;
+
+/**
+ * LISP analysis pass that turns an expression into a tree of Nodes.
+ * Every check EVAL makes on the shape of a form is made here once.  Anything
+ * unusual enough that the compiled form might not fail in exactly the way EVAL
+ * does is handed back to EVAL with an Interpret node.
+ */
+public class NodeCompiler
+{
+    private final DList dList;
+
+    private NodeCompiler(DList dList)
+    {
+        this.dList = dList;
+    }
+
+    /**
+     * Compile an expression that is not at the top level
+     * @param s The expression, with parameter references already resolved
+     * @param dList The definition list user calls are looked up in
+     * @return The node
+     */
+    public static Node Compile(SExp s, DList dList)
+    {
+        return Compile(s, dList, false);
+    }
+
+    /**
+     * Compile a function body, whose calls in tail position hand a TailCall
+     * back to the loop running the body instead of nesting
+     * @param body The body, with parameter references already resolved
+     * @param dList The definition list user calls are looked up in
+     * @return The node
+     */
+    public static Node CompileBody(SExp body, DList dList)
+    {
+        return Compile(body, dList, true);
+    }
+
+    private static Node Compile(SExp s, DList dList, boolean tail)
+    {
+        try
+        {
+            return new NodeCompiler(dList).Expression(s, tail);
+        } catch (RuntimeException e)
+        {
+            //a form too broken to analyze, let EVAL report it
+            return new Node.Interpret(s, dList);
+        }
+    }
+
+    /**
+     * @param tail true if the value of s is the value of the function body
+     */
+    private Node Expression(SExp s, boolean tail)
+    {
+        if (s.IsAtomic())
+        {
+            return Atom(s);
+        }
+
+        //the car of a function definition must be atomic, that is the name of the function
+        SExp f = s.CAR();
+        if (!f.IsAtomic())
+        {
+            return new Node.Fail("ERROR IN EVAL: '" + f.toString() + "' is an illegal function name");
+        }
+
+        if (f == Interpreter.COND)
+        {
+            return Cond(s, tail);
+        }
+
+        if (f == Interpreter.QUOTE)
+        {
+            if (s.CDR().IsAtomic())
+            {
+                return new Node.Interpret(s, dList);
+            }
+            try
+            {
+                Interpreter.CheckParamCount("QUOTE", s.CDR(), 1);
+            } catch (Exception e)
+            {
+                return new Node.Fail(e.getMessage());
+            }
+            return new Node.Constant(s.CDR().CAR());
+        }
+
+        if (f == Interpreter.DEFUN)
+        {
+            return new Node.Fail("ERROR IN EVAL: No Nested Defuns allowed");
+        }
+
+        //bad or improper argument lists fail part way through in EVAL
+        Node[] args = Arguments(s.CDR());
+        if (args == null)
+        {
+            return new Node.Interpret(s, dList);
+        }
+
+        Primitive p = Primitive.Lookup(f);
+        if (p == null)
+        {
+            CallSite site = s instanceof CallSite ? (CallSite) s : new CallSite(f, s.CDR());
+            return new Node.Call(site, args, dList, tail);
+        }
+        if (Profiler.ON)
+        {
+            //only Apply tells the Profiler about the call
+            return new Node.PrimitiveN(p, args);
+        }
+        if (p instanceof Primitive.Unary && args.length == 1)
+        {
+            return new Node.Primitive1((Primitive.Unary) p, args[0]);
+        }
+        if (p instanceof Primitive.Binary && args.length == 2)
+        {
+            return new Node.Primitive2((Primitive.Binary) p, args[0], args[1]);
+        }
+        return new Node.PrimitiveN(p, args);
+    }
+
+    private Node Atom(SExp s)
+    {
+        if (s instanceof LocalRef)
+        {
+            return new Node.Local(((LocalRef) s).index);
+        }
+        if (s == SExp.NIL || s == SExp.T || s.IsInteger())
+        {
+            return new Node.Constant(s);
+        }
+        if (Interpreter.IsValidAtom(s))
+        {
+            return new Node.Dynamic(s);
+        }
+        return new Node.Fail("ERROR IN EVAL: '" + s.GetValue() + "' is not a valid identifier");
+    }
+
+    private Node Cond(SExp s, boolean tail)
+    {
+        try
+        {
+            Interpreter.ConditionalValidation(s);
+        } catch (Exception e)
+        {
+            return new Node.Interpret(s, dList);
+        }
+
+        ArrayList<Node> tests = new ArrayList<Node>();
+        ArrayList<Node> exps = new ArrayList<Node>();
+        SExp clauses = s.CDR();
+        while (!clauses.IsAtomic())
+        {
+            SExp clause = clauses.CAR();
+            //the validation counts (c . e) as two long, EVAL does not cope with it
+            if (clause.CDR().IsAtomic() || !clause.CDR().CDR().IsNull())
+            {
+                return new Node.Interpret(s, dList);
+            }
+            tests.add(Expression(clause.CAR(), false));
+            exps.add(Expression(clause.CDR().CAR(), tail));
+            clauses = clauses.CDR();
+        }
+        if (!clauses.IsNull())
+        {
+            return new Node.Interpret(s, dList);
+        }
+        return new Node.Cond(tests.toArray(new Node[0]), exps.toArray(new Node[0]));
+    }
+
+    /**
+     * Compile an argument list
+     * @param l The arguments
+     * @return The nodes, or null if the list is atomic or improper
+     */
+    private Node[] Arguments(SExp l)
+    {
+        if (l.IsAtomic())
+        {
+            return null;
+        }
+        ArrayList<Node> args = new ArrayList<Node>();
+        while (!l.IsAtomic())
+        {
+            args.add(Expression(l.CAR(), false));
+            l = l.CDR();
+        }
+        if (!l.IsNull())
+        {
+            return null;
+        }
+        return args.toArray(new Node[0]);
+    }
+}
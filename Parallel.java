@@ -0,0 +1,286 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * LISP parallel argument evaluation, turned on by -parallel.
+ * EVLIS hands an argument list here when at least two of the arguments call
+ * user functions.  Those after the first are forked onto a ForkJoinPool and
+ * the calling thread evaluates the rest, left to right, joining the forked
+ * ones in turn.  Arguments cannot have side effects (DEFUN is only allowed
+ * at the top level), so the values are the ones EVLIS gives, and an error is
+ * the one of the first argument that fails.  The arguments forked after it
+ * are cancelled: those not started never run, and those running, and what
+ * they forked in turn, fail at their next user function call, as Poll
+ * checks the chain of arguments a worker is evaluating.
+ */
+final class Parallel
+{
+    //nodes of an argument looked at to decide whether it calls a user function
+    private final static int SCAN_NODES = 32;
+    //a worker with more of its own tasks waiting than this stays sequential
+    private final static int SURPLUS = 2;
+
+    private final static ForkJoinPool pool = new ForkJoinPool();
+
+    //the argument each worker is evaluating
+    private final static ThreadLocal<Argument> running = new ThreadLocal<Argument>();
+
+    /**
+     * An argument evaluated on the pool, its error is kept for the caller
+     */
+    private static final class Argument extends RecursiveTask<SExp>
+    {
+        private static final long serialVersionUID = 1L;
+
+        final SExp exp;
+        final AList aList;
+        final DList dList;
+        final Argument parent;  //the argument being evaluated where this one was forked
+        volatile boolean cancelled;
+        Exception failure;
+        boolean overflow;  //ran out of the worker's stack
+
+        Argument(SExp exp, AList aList, DList dList)
+        {
+            this.exp = exp;
+            this.aList = aList;
+            this.dList = dList;
+            this.parent = running.get();
+        }
+
+        protected SExp compute()
+        {
+            int depth = Profiler.ON ? Profiler.Depth() : 0;
+            Argument outer = running.get();  //a worker joining one argument may run another
+            running.set(this);
+            try
+            {
+                return Interpreter.EVAL(exp, aList, dList, false);
+            } catch (Exception e)
+            {
+                failure = e;
+            } catch (StackOverflowError e)
+            {
+                overflow = true;
+            } finally
+            {
+                running.set(outer);
+                if (Profiler.ON)
+                {
+                    Profiler.Unwind(depth);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Keep the argument from starting, or stop it at its next call
+         */
+        void Cancel()
+        {
+            cancelled = true;
+            cancel(false);
+        }
+
+        /**
+         * Get the value, evaluating it here if no worker has started it.  A
+         * session thread waits for it interruptibly, so Evaluate's timeout
+         * still stops it, and the caller then cancels the workers
+         */
+        SExp Value() throws Exception
+        {
+            if (tryUnfork())
+            {
+                return Interpreter.EVAL(exp, aList, dList, false);
+            }
+            SExp value;
+            if (Thread.currentThread() instanceof ForkJoinWorkerThread)
+            {
+                //a worker stops with the argument it is in, which this one is forked from
+                value = join();
+            } else
+            {
+                try
+                {
+                    value = get();
+                } catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();  //for Evaluate to see
+                    throw new Exception("ERROR IN EVAL: interrupted");
+                } catch (ExecutionException e)
+                {
+                    //compute keeps Exceptions, only Errors get here
+                    throw (Error) e.getCause();
+                }
+            }
+            if (failure != null)
+            {
+                throw failure;
+            }
+            if (overflow)
+            {
+                //workers have smaller stacks than main, try again on this one
+                return Interpreter.EVAL(exp, aList, dList, false);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Has the argument this worker is evaluating, or one it was forked by,
+     * been cancelled
+     * @return true if the evaluation should stop
+     */
+    static boolean Cancelled()
+    {
+        for (Argument a = running.get(); a != null; a = a.parent)
+        {
+            if (a.cancelled)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Is an argument list worth evaluating in parallel
+     * @param l The argument list
+     * @return true if it is a proper list with two or more arguments that
+     * call user functions, and the pool is not already busy with this thread's
+     * tasks
+     */
+    static boolean Worth(SExp l)
+    {
+        if (Thread.currentThread() instanceof ForkJoinWorkerThread
+                && ForkJoinTask.getSurplusQueuedTaskCount() > SURPLUS)
+        {
+            return false;
+        }
+        int expensive = 0;
+        for (; !l.IsAtomic(); l = l.CDR())
+        {
+            if (Expensive(l.CAR()))
+            {
+                expensive++;
+            }
+        }
+        return l.IsNull() && expensive >= 2;
+    }
+
+    /**
+     * LISP evaluate list, in parallel
+     * @param l The argument list, Worth must have said yes
+     * @param aList The current association list
+     * @param dList The current definition list
+     * @return The list of values
+     * @throws java.lang.Exception
+     */
+    static SExp EVLIS(SExp l, AList aList, DList dList) throws Exception
+    {
+        ArrayList<SExp> exps = new ArrayList<SExp>();
+        for (; !l.IsNull(); l = l.CDR())
+        {
+            exps.add(l.CAR());
+        }
+
+        //fork the expensive arguments after the first, leftmost first so
+        //other workers steal the one needed soonest
+        Argument[] forked = new Argument[exps.size()];
+        boolean first = true;
+        boolean worker = Thread.currentThread() instanceof ForkJoinWorkerThread
+                && ((ForkJoinWorkerThread) Thread.currentThread()).getPool() == pool;
+        for (int i = 0; i < forked.length; i++)
+        {
+            if (Expensive(exps.get(i)))
+            {
+                if (first)
+                {
+                    first = false;
+                } else
+                {
+                    forked[i] = new Argument(exps.get(i), aList, dList);
+                    if (worker)
+                    {
+                        forked[i].fork();
+                    } else
+                    {
+                        pool.execute(forked[i]);
+                    }
+                }
+            }
+        }
+
+        SExp[] values = new SExp[forked.length];
+        int i = 0;
+        try
+        {
+            for (; i < values.length; i++)
+            {
+                values[i] = forked[i] == null ? Interpreter.EVAL(exps.get(i), aList, dList, false) : forked[i].Value();
+            }
+        } catch (Exception | Error e)
+        {
+            //the arguments after a failing one are not needed
+            for (int j = i + 1; j < forked.length; j++)
+            {
+                if (forked[j] != null)
+                {
+                    forked[j].Cancel();
+                }
+            }
+            throw e;
+        }
+
+        SExp x = SExp.NIL;
+        for (int j = values.length - 1; j >= 0; j--)
+        {
+            x = SExp.Pair(values[j], x);
+        }
+        return x;
+    }
+
+    /**
+     * Estimate whether evaluating an expression is expensive: it is if it
+     * calls a user function, within the first SCAN_NODES nodes
+     */
+    private static boolean Expensive(SExp exp)
+    {
+        ArrayDeque<SExp> todo = new ArrayDeque<SExp>();
+        todo.push(exp);
+        for (int n = 0; n < SCAN_NODES && !todo.isEmpty(); n++)
+        {
+            SExp x = todo.pop();
+            if (x.IsAtomic())
+            {
+                continue;
+            }
+            SExp f = x.CAR();
+            if (f == Interpreter.QUOTE)
+            {
+                continue;
+            }
+            if (f == Interpreter.COND)
+            {
+                //the clauses are lists of expressions, not expressions
+                for (SExp clauses = x.CDR(); !clauses.IsAtomic(); clauses = clauses.CDR())
+                {
+                    for (SExp c = clauses.CAR(); !c.IsAtomic(); c = c.CDR())
+                    {
+                        todo.push(c.CAR());
+                    }
+                }
+                continue;
+            }
+            if (f instanceof Symbol && Primitive.Lookup(f) == null)
+            {
+                return true;
+            }
+            for (SExp args = x.CDR(); !args.IsAtomic(); args = args.CDR())
+            {
+                todo.push(args.CAR());
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,177 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * LISP read-eval-print loop split over three threads, for bulk input.
+ * A reader thread parses forms ahead into a bounded queue, the calling thread
+ * evaluates them in order, and a writer thread prints the results in
+ * batches.  The output is what the plain loop prints for the same input,
+ * prompts and errors included; only parsing (which does not depend on
+ * evaluation) and printing run alongside evaluation.
+ */
+final class Pipeline
+{
+    private final static int AHEAD = 256;   //forms parsed and not yet evaluated
+    private final static int BEHIND = 256;  //results evaluated and not yet printed
+    private final static int BATCH = 64;    //results the writer takes at once
+
+    //the item after the last form or result
+    private final static Object END = new Object();
+    //a null result, which the queues cannot hold
+    private final static Object NOTHING = new Object();
+
+    /**
+     * A line that is already text, an error from reading or evaluating
+     */
+    private static final class Line
+    {
+        final String text;
+
+        Line(String text)
+        {
+            this.text = text;
+        }
+    }
+
+    private final Interpreter session;
+
+    Pipeline(Interpreter session)
+    {
+        this.session = session;
+    }
+
+    /**
+     * Read, evaluate and print until the input ends
+     * @param in The input
+     * @param out The output, it is flushed after each batch
+     * @param prompt Printed before each result and once at the end
+     * @param error Printed before each error message
+     * @throws java.lang.InterruptedException
+     */
+    void Run(final Lexer in, final PrintStream out, final String prompt, final String error) throws InterruptedException
+    {
+        final BlockingQueue<Object> forms = new ArrayBlockingQueue<Object>(AHEAD);
+        final BlockingQueue<Object> results = new ArrayBlockingQueue<Object>(BEHIND);
+
+        Thread reader = new Thread("lisp-reader")
+        {
+            public void run()
+            {
+                try
+                {
+                    while (true)
+                    {
+                        SExp input;
+                        try
+                        {
+                            input = SExp.INPUT(in);
+                        } catch (Exception e)
+                        {
+                            forms.put(new Line(error + e.getMessage()));
+                            continue;
+                        }
+                        if (input == null)
+                        {
+                            forms.put(END);
+                            return;
+                        }
+                        forms.put(input);
+                    }
+                } catch (InterruptedException e)
+                {
+                    //the evaluator stopped
+                }
+            }
+        };
+        Thread writer = new Thread("lisp-writer")
+        {
+            public void run()
+            {
+                ArrayList<Object> batch = new ArrayList<Object>(BATCH);
+                try
+                {
+                    while (true)
+                    {
+                        batch.add(results.take());
+                        results.drainTo(batch, BATCH - 1);
+                        for (Object result : batch)
+                        {
+                            if (result == END)
+                            {
+                                out.print(prompt);
+                                out.flush();
+                                return;
+                            }
+                            String text = result instanceof Line
+                                    ? ((Line) result).text
+                                    : Text(result == NOTHING ? null : (SExp) result, error);
+                            out.print(prompt);
+                            out.println(text);
+                        }
+                        batch.clear();
+                        out.flush();
+                    }
+                } catch (InterruptedException e)
+                {
+                    out.flush();
+                }
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+        writer.start();
+
+        try
+        {
+            while (true)
+            {
+                Object form = forms.take();
+                if (form == END)
+                {
+                    break;
+                }
+                if (form instanceof Line)
+                {
+                    results.put(form);
+                    continue;
+                }
+                Object result;
+                try
+                {
+                    result = session.Evaluate((SExp) form);
+                } catch (Exception e)
+                {
+                    result = new Line(error + e.getMessage());
+                }
+                if (Arena.ON && !(result instanceof Line))
+                {
+                    //a value in the session's Arena is only good until the next form
+                    result = new Line(Text((SExp) result, error));
+                }
+                //QUOTE can give null, the writer fails on it as the plain loop does
+                results.put(result == null ? NOTHING : result);
+            }
+        } finally
+        {
+            //what was printed before an error stays printed
+            reader.interrupt();
+            results.put(END);
+            writer.join();
+        }
+    }
+
+    /**
+     * Print a result as the plain loop does
+     */
+    private static String Text(SExp result, String error)
+    {
+        try
+        {
+            return Interpreter.Show(result);
+        } catch (Exception e)
+        {
+            return error + e.getMessage();
+        }
+    }
+}
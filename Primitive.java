@@ -0,0 +1,284 @@
+/**
+ * LISP builtin function.
+ * Each builtin extends the class for its arity, Unary, Binary or Nary, and
+ * is registered on its name's symbol, so APPLY finds it with one lookup.  New
+ * builtins can be added from Java with Register, before any evaluation
+ * starts.
+ */
+public abstract class Primitive
+{
+    final Symbol name;
+    final int arity;
+
+    //the builtins, registered when the class is initialized
+    final static Unary CAR = Register(new Unary("CAR")
+    {
+        public SExp Call(SExp a) throws Exception
+        {
+            if (a.IsAtomic())
+            {
+                throw new Exception("ERROR IN APPLY: CAR cannot be performed on atom");
+            }
+            return a.CAR();
+        }
+    });
+
+    final static Unary CDR = Register(new Unary("CDR")
+    {
+        public SExp Call(SExp a) throws Exception
+        {
+            if (a.IsAtomic())
+            {
+                throw new Exception("ERROR IN APPLY: CDR cannot be performed on atom");
+            }
+            return a.CDR();
+        }
+    });
+
+    final static Binary CONS = Register(new Binary("CONS")
+    {
+        public SExp Call(SExp a, SExp b) throws Exception
+        {
+            return SExp.CONS(a, b);
+        }
+    });
+
+    final static Binary EQ = Register(new Binary("EQ")
+    {
+        public SExp Call(SExp a, SExp b) throws Exception
+        {
+            return SExp.EQ(a, b);
+        }
+    });
+
+    final static Unary ATOM = Register(new Unary("ATOM")
+    {
+        public SExp Call(SExp a)
+        {
+            return a.IsAtomic() ? SExp.T : SExp.NIL;
+        }
+    });
+
+    final static Unary NULL = Register(new Unary("NULL")
+    {
+        public SExp Call(SExp a)
+        {
+            return a.IsNull() ? SExp.T : SExp.NIL;
+        }
+    });
+
+    final static Unary INT = Register(new Unary("INT")
+    {
+        public SExp Call(SExp a)
+        {
+            return a.IsInteger() ? SExp.T : SExp.NIL;
+        }
+    });
+
+    final static Binary PLUS = Register(new Binary("PLUS")
+    {
+        public SExp Call(SExp a, SExp b) throws Exception
+        {
+            return SExp.PLUS(a, b);
+        }
+    });
+
+    final static Binary MINUS = Register(new Binary("MINUS")
+    {
+        public SExp Call(SExp a, SExp b) throws Exception
+        {
+            return SExp.MINUS(a, b);
+        }
+    });
+
+    final static Binary TIMES = Register(new Binary("TIMES")
+    {
+        public SExp Call(SExp a, SExp b) throws Exception
+        {
+            return SExp.TIMES(a, b);
+        }
+    });
+
+    final static Binary QUOTIENT = Register(new Binary("QUOTIENT")
+    {
+        public SExp Call(SExp a, SExp b) throws Exception
+        {
+            return SExp.QUOTIENT(a, b);
+        }
+    });
+
+    final static Binary REMAINDER = Register(new Binary("REMAINDER")
+    {
+        public SExp Call(SExp a, SExp b) throws Exception
+        {
+            return SExp.REMAINDER(a, b);
+        }
+    });
+
+    final static Binary LESS = Register(new Binary("LESS")
+    {
+        public SExp Call(SExp a, SExp b) throws Exception
+        {
+            return SExp.LESS(a, b);
+        }
+    });
+
+    final static Binary GREATER = Register(new Binary("GREATER")
+    {
+        public SExp Call(SExp a, SExp b) throws Exception
+        {
+            return SExp.GREATER(a, b);
+        }
+    });
+
+    /**
+     * A one parameter builtin
+     */
+    public abstract static class Unary extends Primitive
+    {
+        /**
+         * @param name The name the builtin is called by
+         */
+        protected Unary(String name)
+        {
+            super(name, 1);
+        }
+
+        /**
+         * Body of the builtin
+         * @param a The argument
+         * @return The result
+         * @throws java.lang.Exception
+         */
+        public abstract SExp Call(SExp a) throws Exception;
+
+        SExp Spread(SExp x) throws Exception
+        {
+            return Call(x.CAR());
+        }
+    }
+
+    /**
+     * A two parameter builtin
+     */
+    public abstract static class Binary extends Primitive
+    {
+        /**
+         * @param name The name the builtin is called by
+         */
+        protected Binary(String name)
+        {
+            super(name, 2);
+        }
+
+        /**
+         * Body of the builtin
+         * @param a The first argument
+         * @param b The second argument
+         * @return The result
+         * @throws java.lang.Exception
+         */
+        public abstract SExp Call(SExp a, SExp b) throws Exception;
+
+        SExp Spread(SExp x) throws Exception
+        {
+            return Call(x.CAR(), x.CDR().CAR());
+        }
+    }
+
+    /**
+     * A builtin of any other arity
+     */
+    public abstract static class Nary extends Primitive
+    {
+        /**
+         * @param name The name the builtin is called by
+         * @param arity The number of parameters it takes
+         */
+        protected Nary(String name, int arity)
+        {
+            super(name, arity);
+        }
+
+        /**
+         * Body of the builtin
+         * @param args The arguments, arity of them
+         * @return The result
+         * @throws java.lang.Exception
+         */
+        public abstract SExp Call(SExp[] args) throws Exception;
+
+        SExp Spread(SExp x) throws Exception
+        {
+            SExp[] args = new SExp[arity];
+            for (int i = 0; i < arity; i++)
+            {
+                args[i] = x.CAR();
+                x = x.CDR();
+            }
+            return Call(args);
+        }
+    }
+
+    //only the classes above extend it, so every builtin has its body
+    private Primitive(String name, int arity)
+    {
+        this.name = SExp.Intern(name);
+        this.arity = arity;
+    }
+
+    /**
+     * Make a builtin callable by its name
+     * @param p The builtin
+     * @return p
+     */
+    public static <P extends Primitive> P Register(P p)
+    {
+        p.name.primitive = p;
+        return p;
+    }
+
+    /**
+     * Find the builtin for a function name
+     * @param f The function name
+     * @return The builtin, or null if f does not name one
+     */
+    public static Primitive Lookup(SExp f)
+    {
+        if (f instanceof Symbol)
+        {
+            return ((Symbol) f).primitive;
+        }
+        return null;
+    }
+
+    /**
+     * Apply the builtin to an evaluated argument list
+     * @param x The arguments
+     * @return The result
+     * @throws java.lang.Exception
+     */
+    public SExp Apply(SExp x) throws Exception
+    {
+        if (Profiler.ON)
+        {
+            Interpreter.CheckParamCount(name.GetValue(), x, arity);
+            Profiler.Enter(this);
+            try
+            {
+                return Spread(x);
+            } finally
+            {
+                Profiler.Exit();
+            }
+        }
+        Interpreter.CheckParamCount(name.GetValue(), x, arity);
+        return Spread(x);
+    }
+
+    /**
+     * Call the body with the arguments taken out of the list, which has
+     * arity of them
+     */
+    abstract SExp Spread(SExp x) throws Exception;
+}
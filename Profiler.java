@@ -0,0 +1,297 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * LISP profiler, counting with -Dlisp.profile=true and feeding the Sampler
+ * with -Dlisp.sample=file.
+ * Each engine tells it when a user function or a builtin is entered and left,
+ * and SExp.CONS tells it about each cons cell.  Counting keeps, per function: the
+ * calls, the time spent in them counting what they call (total) and not
+ * (self), the deepest recursion and the conses allocated, counted both ways.
+ * A tail call ends its caller's activation, as it does in the engines.
+ * The flags are constants, so with them off the calls to the profiler compile
+ * away; with one on the JIT is off, so calls are not compiled out of sight.
+ * The report, sorted by self time, is printed to standard error at exit.
+ */
+public final class Profiler
+{
+    final static boolean COUNTING = Boolean.getBoolean("lisp.profile");
+    //the engines call the profiler
+    public final static boolean ON = COUNTING || Sampler.ON;
+
+    /**
+     * What has been measured for one function on one thread
+     */
+    private static final class Entry
+    {
+        final String name;
+        long calls;
+        long total;        //nanoseconds, of the outermost activations
+        long self;         //nanoseconds, without the functions called
+        long conses;       //of the outermost activations
+        long selfConses;
+        int active;        //activations on the thread's stack
+        int deepest;
+
+        Entry(String name)
+        {
+            this.name = name;
+        }
+    }
+
+    /**
+     * A function that has been entered and not yet left
+     */
+    private static final class Activation
+    {
+        Entry entry;
+        long start;
+        long children;       //nanoseconds spent in the functions called
+        long conses;         //the thread's conses when it was entered
+        long childConses;
+    }
+
+    /**
+     * The profiler's state for one thread.  Functions are held weakly, so a
+     * closed session's definitions can go, and their counts are kept by name
+     */
+    private static final class Stack
+    {
+        final Thread thread = Thread.currentThread();
+        final WeakHashMap<Object, Entry> entries = new WeakHashMap<Object, Entry>();
+        final Map<String, Entry> named = new ConcurrentHashMap<String, Entry>();  //read by the report
+        Activation[] activations = new Activation[64];
+        int depth;
+        long conses;
+    }
+
+    //the state of every thread that has run Lisp and not been retired, for the report
+    private final static Queue<Stack> threads = new ConcurrentLinkedQueue<Stack>();
+    private final static AtomicInteger listed = new AtomicInteger();
+    //threads listed at which new ones look for ended ones to retire, twice what
+    //the last look left, so each thread is looked at a few times on average
+    private static volatile int retireAt = 64;
+    private final static ThreadLocal<Stack> stacks = ThreadLocal.withInitial(() ->
+    {
+        Stack t = new Stack();
+        threads.add(t);
+        if (listed.incrementAndGet() >= retireAt)
+        {
+            Retire();
+        }
+        return t;
+    });
+    //what the threads that have ended measured, by name
+    private final static Map<String, Entry> retired = new HashMap<String, Entry>();
+
+    static
+    {
+        if (COUNTING)
+        {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> System.err.print(Report()), "lisp-profile"));
+        }
+    }
+
+    private Profiler()
+    {
+    }
+
+    /**
+     * Enter a function
+     * @param fn The Function or Primitive
+     */
+    static void Enter(Object fn)
+    {
+        if (Sampler.ON)
+        {
+            Sampler.Push(fn instanceof Function ? ((Function) fn).name.GetValue() : ((Primitive) fn).name.GetValue());
+        }
+        if (COUNTING)
+        {
+            Count(fn);
+        }
+    }
+
+    private static void Count(Object fn)
+    {
+        Stack t = stacks.get();
+        Entry e = t.entries.get(fn);
+        if (e == null)
+        {
+            e = t.named.computeIfAbsent(fn instanceof Function
+                    ? ((Function) fn).name.GetValue()
+                    : ((Primitive) fn).name.GetValue() + " (builtin)", Entry::new);
+            t.entries.put(fn, e);
+        }
+        e.calls++;
+        e.active++;
+        e.deepest = Math.max(e.deepest, e.active);
+
+        if (t.depth == t.activations.length)
+        {
+            t.activations = Arrays.copyOf(t.activations, t.depth * 2);
+        }
+        Activation a = t.activations[t.depth];
+        if (a == null)
+        {
+            a = t.activations[t.depth] = new Activation();
+        }
+        t.depth++;
+        a.entry = e;
+        a.children = 0;
+        a.childConses = 0;
+        a.conses = t.conses;
+        a.start = System.nanoTime();
+    }
+
+    /**
+     * Leave the function entered last
+     */
+    static void Exit()
+    {
+        if (Sampler.ON)
+        {
+            Sampler.Pop();
+        }
+        if (COUNTING)
+        {
+            long end = System.nanoTime();
+            Leave(stacks.get(), end);
+        }
+    }
+
+    private static void Leave(Stack t, long end)
+    {
+        Activation a = t.activations[--t.depth];
+        Entry e = a.entry;
+        long time = end - a.start;
+        long conses = t.conses - a.conses;
+        e.self += time - a.children;
+        e.selfConses += conses - a.childConses;
+        if (--e.active == 0)
+        {
+            //a recursive call's time is already in its outermost activation's
+            e.total += time;
+            e.conses += conses;
+        }
+        if (t.depth > 0)
+        {
+            Activation caller = t.activations[t.depth - 1];
+            caller.children += time;
+            caller.childConses += conses;
+        }
+        a.entry = null;
+    }
+
+    /**
+     * Get how many functions have been entered and not left on this thread
+     * @return The depth, for Unwind
+     */
+    static int Depth()
+    {
+        if (COUNTING)
+        {
+            return stacks.get().depth;
+        }
+        return Sampler.Depth();
+    }
+
+    /**
+     * Leave the functions an error went out of
+     * @param depth What Depth was before they were entered
+     */
+    static void Unwind(int depth)
+    {
+        if (Sampler.ON)
+        {
+            Sampler.Unwind(depth);
+        }
+        if (COUNTING)
+        {
+            long end = System.nanoTime();
+            Stack t = stacks.get();
+            while (t.depth > depth)
+            {
+                Leave(t, end);
+            }
+        }
+    }
+
+    /**
+     * Count a cons cell
+     */
+    static void Cons()
+    {
+        stacks.get().conses++;
+    }
+
+    /**
+     * Fold the counts of the threads that have ended into retired, and let
+     * their state go
+     */
+    private static void Retire()
+    {
+        synchronized (retired)
+        {
+            for (Iterator<Stack> i = threads.iterator(); i.hasNext(); )
+            {
+                Stack t = i.next();
+                if (!t.thread.isAlive())
+                {
+                    //a thread seen to have ended has made all its writes
+                    i.remove();
+                    listed.decrementAndGet();
+                    Merge(retired, t.named.values());
+                }
+            }
+            retireAt = Math.max(64, 2 * listed.get());
+        }
+    }
+
+    private static void Merge(Map<String, Entry> merged, Collection<Entry> entries)
+    {
+        for (Entry e : entries)
+        {
+            Entry m = merged.computeIfAbsent(e.name, Entry::new);
+            m.calls += e.calls;
+            m.total += e.total;
+            m.self += e.self;
+            m.conses += e.conses;
+            m.selfConses += e.selfConses;
+            m.deepest = Math.max(m.deepest, e.deepest);
+        }
+    }
+
+    /**
+     * Get the report.  Threads still running may be part way through
+     * updating their counts, so it is approximate until they finish
+     * @return A line for each function, the most self time first
+     */
+    public static String Report()
+    {
+        //threads have entries of their own, add them up
+        Map<String, Entry> merged = new HashMap<String, Entry>();
+        synchronized (retired)
+        {
+            Retire();
+            Merge(merged, retired.values());
+            for (Stack t : threads)
+            {
+                Merge(merged, t.named.values());
+            }
+        }
+        List<Entry> sorted = new ArrayList<Entry>(merged.values());
+        sorted.sort((a, b) -> Long.compare(b.self, a.self));
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-24s %12s %12s %12s %6s %12s %12s%n",
+                "function", "calls", "total ms", "self ms", "depth", "conses", "self conses"));
+        for (Entry e : sorted)
+        {
+            report.append(String.format("%-24s %12d %12.3f %12.3f %6d %12d %12d%n",
+                    e.name, e.calls, e.total / 1e6, e.self / 1e6, e.deepest, e.conses, e.selfConses));
+        }
+        return report.toString();
+    }
+}
@@ -4,56 +4,82 @@
   * johansek@cse.ohio-state.edu
  */
 import java.io.*;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.*;
 
-public class SExp
+public abstract sealed class SExp permits Cons, Arena.Cell, Symbol, Fixnum, Bignum, LocalRef, TailCall
 {
 
-    private SExp car;
-    private SExp cdr;
-    private String value;
-    private boolean isAtomic;
-    public final static SExp T = new SExp("T");
-    public final static SExp NIL = new SExp("NIL");
+    //the symbol table, keyed by the upper case name; must come before T and NIL
+    private final static ConcurrentHashMap<String, Symbol> symbols = new ConcurrentHashMap<String, Symbol>();
 
-    //for the tokenizer functions
-    private static String pushedToken = null;
+    public final static Symbol T = Intern("T");
+    public final static Symbol NIL = Intern("NIL");
 
     
     /**
-     * Need an empty constructor
+     * Only the kinds of S expression permitted above exist, a cons is a Cons
+     * (or with the Arena on, a Cell) and anything else is an atom
      */
     SExp()
     {
         //nothing to do here
     }
 
+
     /**
-     * Constructor for atom
-     * @param aVal
+     * Get the one symbol for an identifier, the lookup is not case sensitive
+     * @param name The identifier as read
+     * @return The canonical symbol
      */
-    SExp(String aVal)
+    public static Symbol Intern(String name)
     {
-        value = aVal;
-        isAtomic = true;
-        car = null;
-        cdr = null;
+        String key = name.toUpperCase(Locale.ROOT);
+        Symbol sym = symbols.get(key);
+        if (sym == null)
+        {
+            Symbol fresh = new Symbol(key);
+            sym = symbols.putIfAbsent(key, fresh);
+            if (sym == null)
+            {
+                sym = fresh;
+            }
+        }
+        return sym;
     }
 
-
     /**
      * Get the S expression in dot notation
      * @return dot notation
      */
     public String ToStringDotNotation()
     {
-        if (isAtomic)
-        {
-            return this.value;
-        }
-        else
-        {
-            return "("+car.ToStringDotNotation()+" . "+cdr.ToStringDotNotation()+")";
+        //a stack of what is left to print, strings as they are and S expressions
+        //in dot notation, so deep nesting does not recurse
+        StringBuilder str = new StringBuilder();
+        ArrayDeque<Object> todo = new ArrayDeque<Object>();
+        todo.push(this);
+        while (!todo.isEmpty())
+        {
+            Object next = todo.pop();
+            if (next instanceof String)
+            {
+                str.append((String) next);
+            } else if (((SExp) next).IsAtomic())
+            {
+                str.append(((SExp) next).GetValue());
+            } else
+            {
+                SExp s = (SExp) next;
+                str.append("(");
+                todo.push(")");
+                todo.push(s.CDR());
+                todo.push(" . ");
+                todo.push(s.CAR());
+            }
         }
+        return str.toString();
     }
 
 
@@ -65,30 +91,43 @@ public class SExp
      */
     public String ToStringListNotation()
     {
-        String str;
-
-        if (isAtomic)
+        StringBuilder str = new StringBuilder();
+        ArrayDeque<Object> todo = new ArrayDeque<Object>();
+        todo.push(this);
+        while (!todo.isEmpty())
         {
-            str = value;
-        } else
-        {
-            str = "(";
-            str += car.ToStringListNotation();
-            if (!cdr.IsNull())
+            Object next = todo.pop();
+            if (next instanceof String)
+            {
+                str.append((String) next);
+            } else if (((SExp) next).IsAtomic())
+            {
+                str.append(((SExp) next).GetValue());
+            } else
             {
-                if (!cdr.IsAtomic())
+                //queue the elements in reverse, then the list is printed front to back
+                ArrayList<SExp> elements = new ArrayList<SExp>();
+                SExp s = (SExp) next;
+                for (; !s.IsAtomic(); s = s.CDR())
+                {
+                    elements.add(s.CAR());
+                }
+                str.append("(");
+                todo.push(")");
+                if (!s.IsNull())
                 {
-                    String cdrStr = cdr.ToStringListNotation();
-                    str += " " + cdrStr.substring(1, cdrStr.length() - 1);
-                } else
+                    todo.push(s);
+                    todo.push(" . ");
+                }
+                for (int i = elements.size() - 1; i > 0; i--)
                 {
-                    str += " . ";
-                    str += cdr.ToStringListNotation();
+                    todo.push(elements.get(i));
+                    todo.push(" ");
                 }
+                todo.push(elements.get(0));
             }
-            str += ")";
         }
-        return str;
+        return str.toString();
     }
 
     /**
@@ -117,49 +156,38 @@ public class SExp
         }
     }
 
-    /**
-     * Set the S expression as atomic
-     * @param isAtom
-     */
-    private void SetAtom(boolean isAtom)
-    {
-        this.isAtomic = isAtom;
-    }
-
-    /**
-     * Set the cdr
-     * @param cdr  The value of the cdr
-     */
-    private void SetCDR(SExp cdr)
-    {
-        this.cdr = cdr;
-    }
-
     /**
      * Get the CDR
-     * @return The CDR
-     */
-    public SExp CDR()
-    {
-        return cdr;
-    }
-
-    /**
-     * Set the car
-     * @param car The value for the car
+     * @return The CDR, null for an atom
      */
-    private void SetCAR(SExp car)
+    public final SExp CDR()
     {
-        this.car = car;
+        if (this instanceof Cons)
+        {
+            return ((Cons) this).cdr;
+        }
+        if (Arena.ON && this instanceof Arena.Cell)
+        {
+            return ((Arena.Cell) this).arena.Cdr(((Arena.Cell) this).index);
+        }
+        return null;
     }
 
     /**
      * Get the car
-     * @return The car
+     * @return The car, null for an atom
      */
-    public SExp CAR()
+    public final SExp CAR()
     {
-        return car;
+        if (this instanceof Cons)
+        {
+            return ((Cons) this).car;
+        }
+        if (Arena.ON && this instanceof Arena.Cell)
+        {
+            return ((Arena.Cell) this).arena.Car(((Arena.Cell) this).index);
+        }
+        return null;
     }
 
 
@@ -169,31 +197,46 @@ public class SExp
      * @param s1
      * @param s2
      * @return CONSed S expression
+     * @throws java.lang.Exception
      */
-    public static SExp CONS(SExp s1, SExp s2)
+    public static SExp CONS(SExp s1, SExp s2) throws Exception
     {
-        SExp s = new SExp();
-        s.SetCAR(s1);
-        s.SetCDR(s2);
-        return s;
+        Metrics.conses.increment();
+        if (Profiler.COUNTING)
+        {
+            Profiler.Cons();
+        }
+        if (Arena.ON)
+        {
+            Arena arena = Arena.Current();
+            if (arena != null)
+            {
+                return arena.CONS(s1, s2);
+            }
+        }
+        return new Cons(s1, s2);
     }
 
     /**
-     * Get the value of an atomic s expression
-     * @return The value
+     * Make a cons on the heap, for the lists the interpreter builds for
+     * itself, which never go in an Arena and are not counted as the
+     * program's conses
+     * @param s1 The car
+     * @param s2 The cdr
+     * @return The cons
      */
-    public String GetValue()
+    static Cons Pair(SExp s1, SExp s2)
     {
-        return value;
+        return new Cons(s1, s2);
     }
 
     /**
-     * Set the value of an atomic S expression
-     * @param value The new value
+     * Get the value of an atomic s expression
+     * @return The value, null for a cons
      */
-    public void SetValue(String value)
+    public String GetValue()
     {
-        this.value = value;
+        return null;
     }
 
     /**
@@ -205,22 +248,21 @@ public class SExp
      */
     public static SExp PLUS(SExp s1, SExp s2) throws Exception
     {
-        try
+        if (s1 instanceof Fixnum && s2 instanceof Fixnum)
         {
-            if (s1.IsAtomic() && s2.IsAtomic())
+            long n1 = ((Fixnum) s1).value;
+            long n2 = ((Fixnum) s2).value;
+            long r = n1 + n2;
+            if (((n1 ^ r) & (n2 ^ r)) >= 0)  //no overflow
             {
-                int n1 = Integer.parseInt(s1.GetValue());
-                int n2 = Integer.parseInt(s2.GetValue());
-                return new SExp(String.valueOf(n1 + n2));
+                return Fixnum.ValueOf(r);
             }
-            else
-            {
-                throw new Exception("ERROR IN PLUS: Integers only");
-            }
-        } catch (NumberFormatException e)
+        }
+        else if (!s1.IsInteger() || !s2.IsInteger())
         {
             throw new Exception("ERROR IN PLUS: Integers only");
         }
+        return Bignum.ValueOf(BigValue(s1).add(BigValue(s2)));
     }
 
     /**
@@ -233,22 +275,21 @@ public class SExp
     public static SExp MINUS(SExp s1, SExp s2)
             throws Exception
     {
-        try
+        if (s1 instanceof Fixnum && s2 instanceof Fixnum)
         {
-            if (s1.IsAtomic() && s2.IsAtomic())
-            {
-                int n1 = Integer.parseInt(s1.GetValue());
-                int n2 = Integer.parseInt(s2.GetValue());
-                return new SExp(String.valueOf(n1 - n2));
-            }
-            else
+            long n1 = ((Fixnum) s1).value;
+            long n2 = ((Fixnum) s2).value;
+            long r = n1 - n2;
+            if (((n1 ^ n2) & (n1 ^ r)) >= 0)  //no overflow
             {
-            throw new Exception("ERROR IN MINUS: Integers only");
+                return Fixnum.ValueOf(r);
             }
-        } catch (NumberFormatException e)
+        }
+        else if (!s1.IsInteger() || !s2.IsInteger())
         {
             throw new Exception("ERROR IN MINUS: Integers only");
         }
+        return Bignum.ValueOf(BigValue(s1).subtract(BigValue(s2)));
     }
 
     /**
@@ -260,22 +301,22 @@ public class SExp
      */
     public static SExp TIMES(SExp s1, SExp s2) throws Exception
     {
-        try
+        if (s1 instanceof Fixnum && s2 instanceof Fixnum)
         {
-            if (s1.IsAtomic() && s2.IsAtomic())
+            long n1 = ((Fixnum) s1).value;
+            long n2 = ((Fixnum) s2).value;
+            long hi = Math.multiplyHigh(n1, n2);
+            long lo = n1 * n2;
+            if ((hi == 0 && lo >= 0) || (hi == -1 && lo < 0))  //no overflow
             {
-                int n1 = Integer.parseInt(s1.GetValue());
-                int n2 = Integer.parseInt(s2.GetValue());
-                return new SExp(String.valueOf(n1 * n2));
+                return Fixnum.ValueOf(lo);
             }
-            else
-            {
-            throw new Exception("ERROR IN TIMES: Integers only");
-            }
-        } catch (NumberFormatException e)
+        }
+        else if (!s1.IsInteger() || !s2.IsInteger())
         {
             throw new Exception("ERROR IN TIMES: Integers only");
         }
+        return Bignum.ValueOf(BigValue(s1).multiply(BigValue(s2)));
     }
 
     /**
@@ -287,25 +328,24 @@ public class SExp
      */
     public static SExp QUOTIENT(SExp s1, SExp s2) throws Exception
     {
-        try
+        if (!s1.IsInteger() || !s2.IsInteger())
         {
-            if (s1.IsAtomic() && s2.IsAtomic())
-            {
-                int n1 = Integer.parseInt(s1.GetValue());
-                int n2 = Integer.parseInt(s2.GetValue());
-                return new SExp(String.valueOf(n1 / n2));
-            }
-            else
-            {
-                throw new Exception("ERROR IN QUOTIENT: Integers only");
-            }
-        } catch (ArithmeticException e)
+            throw new Exception("ERROR IN QUOTIENT: Integers only");
+        }
+        if (s2 instanceof Fixnum && ((Fixnum) s2).value == 0)
         {
             throw new Exception("ERROR IN QUOTIENT: Division by zero");
-        } catch (NumberFormatException e)
+        }
+        if (s1 instanceof Fixnum && s2 instanceof Fixnum)
         {
-            throw new Exception("ERROR IN QUOTIENT: Integers only");
+            long n1 = ((Fixnum) s1).value;
+            long n2 = ((Fixnum) s2).value;
+            if (n1 != Long.MIN_VALUE || n2 != -1)  //the only overflowing case
+            {
+                return Fixnum.ValueOf(n1 / n2);
+            }
         }
+        return Bignum.ValueOf(BigValue(s1).divide(BigValue(s2)));
     }
 
     /**
@@ -317,25 +357,19 @@ public class SExp
      */
     public static SExp REMAINDER(SExp s1, SExp s2) throws Exception
     {
-        try
+        if (!s1.IsInteger() || !s2.IsInteger())
         {
-            if (s1.IsAtomic() && s2.IsAtomic())
-            {
-                int n1 = Integer.parseInt(s1.GetValue());
-                int n2 = Integer.parseInt(s2.GetValue());
-                return new SExp(String.valueOf(n1 % n2));
-            }
-            else
-            {
-                throw new Exception("ERROR IN REMAINDER: Integers only");
-            }
-        } catch (ArithmeticException e)
+            throw new Exception("ERROR IN REMAINDER: Integers only");
+        }
+        if (s2 instanceof Fixnum && ((Fixnum) s2).value == 0)
         {
             throw new Exception("ERROR IN REMAINDER: Division by zero");
-        } catch (NumberFormatException e)
+        }
+        if (s1 instanceof Fixnum && s2 instanceof Fixnum)
         {
-            throw new Exception("ERROR IN REMAINDER: Integers only");
+            return Fixnum.ValueOf(((Fixnum) s1).value % ((Fixnum) s2).value);
         }
+        return Bignum.ValueOf(BigValue(s1).remainder(BigValue(s2)));
     }
 
     /**
@@ -347,28 +381,17 @@ public class SExp
      */
     public static SExp GREATER(SExp s1, SExp s2) throws Exception
     {
-        try
-        {
-            if (s1.IsAtomic() && s2.IsAtomic())
-            {
-                int n1 = Integer.parseInt(s1.GetValue());
-                int n2 = Integer.parseInt(s2.GetValue());
-                if (n1 > n2)
-                {
-                    return SExp.T;
-                } else
-                {
-                    return SExp.NIL;
-                }
-            }
-            else
-            {
-                throw new Exception("ERROR IN GREATER: Integers only");
-            }
-        } catch (NumberFormatException e)
+        if (!s1.IsInteger() || !s2.IsInteger())
         {
             throw new Exception("ERROR IN GREATER: Integers only");
         }
+        if (Compare(s1, s2) > 0)
+        {
+            return SExp.T;
+        } else
+        {
+            return SExp.NIL;
+        }
     }
 
     /**
@@ -381,28 +404,76 @@ public class SExp
     public static SExp LESS(SExp s1, SExp s2)
             throws Exception
     {
-        try
+        if (!s1.IsInteger() || !s2.IsInteger())
         {
-            if (s1.IsAtomic() && s2.IsAtomic())
-            {
-                int n1 = Integer.parseInt(s1.GetValue());
-                int n2 = Integer.parseInt(s2.GetValue());
-                if (n1 < n2)
-                {
-                    return SExp.T;
-                } else
-                {
-                    return SExp.NIL;
-                }
-            }
-            else
+            throw new Exception("ERROR IN LESS: Integers only");
+        }
+        if (Compare(s1, s2) < 0)
+        {
+            return SExp.T;
+        } else
+        {
+            return SExp.NIL;
+        }
+    }
+
+    /**
+     * Compare two integer atoms
+     * @param s1
+     * @param s2
+     * @return negative, zero or positive as s1 is less, equal or greater
+     */
+    private static int Compare(SExp s1, SExp s2)
+    {
+        if (s1 instanceof Fixnum && s2 instanceof Fixnum)
+        {
+            return Long.compare(((Fixnum) s1).value, ((Fixnum) s2).value);
+        }
+        return BigValue(s1).compareTo(BigValue(s2));
+    }
+
+    /**
+     * Get the value of an integer atom as a BigInteger
+     * @param s A Fixnum or Bignum
+     * @return The value
+     */
+    private static BigInteger BigValue(SExp s)
+    {
+        if (s instanceof Fixnum)
+        {
+            return BigInteger.valueOf(((Fixnum) s).value);
+        }
+        return ((Bignum) s).value;
+    }
+
+    /**
+     * Parse an integer token
+     * @param token The token as read
+     * @return The Fixnum or Bignum, or null if the token is not an integer
+     */
+    public static SExp ParseInteger(String token)
+    {
+        int len = token.length();
+        int start = (len > 1 && (token.charAt(0) == '-' || token.charAt(0) == '+')) ? 1 : 0;
+        if (start == len)
+        {
+            return null;
+        }
+        long n = 0;
+        for (int i = start; i < len; i++)
+        {
+            char c = token.charAt(i);
+            if (c < '0' || c > '9')
             {
-                throw new Exception("ERROR IN LESS: Integers only");
+                return null;
             }
-        } catch (NumberFormatException e)
+            n = n * 10 + (c - '0');
+        }
+        if (len - start > 18)  //might not fit, let BigInteger sort it out
         {
-            throw new Exception("ERROR IN LESS: Integers only");
+            return Bignum.ValueOf(new BigInteger(token));
         }
+        return Fixnum.ValueOf(token.charAt(0) == '-' ? -n : n);
     }
 
     /**
@@ -421,7 +492,8 @@ public class SExp
         }
         else
         {
-            if (s1.GetValue().equalsIgnoreCase(s2.GetValue()))
+            //symbols are interned, only numbers need their values compared
+            if (s1 == s2 || (s1.IsInteger() && s2.IsInteger() && Compare(s1, s2) == 0))
             {
                 return SExp.T;
             } else
@@ -435,29 +507,18 @@ public class SExp
      * Is the S expression atomic
      * @return true=atomic
      */
-    public boolean IsAtomic()
+    public final boolean IsAtomic()
     {
-        return isAtomic;
+        return !(this instanceof Cons || Arena.ON && this instanceof Arena.Cell);
     }
 
     /**
      * Is the atom an integer
      * @return
      */
-    public boolean IsInteger()
+    public final boolean IsInteger()
     {
-        if (!isAtomic)  //if not an atom cant be integer
-        {
-            return false;
-        }
-        try
-        {
-            Integer.parseInt(value);
-            return true;
-        } catch (NumberFormatException e)  //if no exception then is int
-        {
-            return false;
-        }
+        return this instanceof Fixnum || this instanceof Bignum;
     }
 
 
@@ -465,120 +526,137 @@ public class SExp
      * Is the atom null
      * @return
      */
-    public boolean IsNull()
+    public final boolean IsNull()
     {
-        if (car == null && cdr == null && value.equalsIgnoreCase("NIL"))  //NIL is null too
+        return this == NIL;  //NIL is interned, () reads as NIL too
+    }
+
+    /**
+     * Read one S expression.  Open lists are kept on a stack instead of in
+     * recursive calls, so neither long nor deeply nested input can overflow
+     * the Java stack
+     * @param in
+     * @return The S expression, or null at the end of input
+     * @throws java.lang.Exception
+     * @throws java.io.IOException
+     */
+    public static SExp INPUT(Lexer in) throws Exception, IOException
+    {
+        Events.Parse event = Events.Parse();
+        SExp s = Read(in);
+        if (s != null)
         {
-            return true;
+            Events.Parsed(event, s);
         }
-        return false;
+        return s;
     }
 
-    public static SExp INPUT(InputStream in) throws Exception, IOException
+    private static SExp Read(Lexer in) throws Exception, IOException
     {
-        SExp s;
-        String token = NextToken(in);
+        ArrayDeque<OpenList> open = new ArrayDeque<OpenList>();
+        String token = in.Next();
 
-        if (token.equalsIgnoreCase(""))
+        if (token.equals(""))
         {
             return null;
         }
 
-        if (token.equalsIgnoreCase("("))
+        while (true)
         {
-            String next = NextToken(in);
-
-            // () is equal to NILL
-            if (next.equalsIgnoreCase(")"))
+            //token starts an S expression, read it or open a list for it
+            SExp s;
+            if (token.equals(""))
             {
-                return SExp.NIL;
+                throw new Exception("ERROR IN INPUT: Ended in middle of s expression");
             }
-
-            PushedToken(next);
-
-            s = new SExp();
-            s.SetCAR(INPUT(in));
-
-            token = NextToken(in);
-
-            if (token.equals("."))
+            if (token.equals("("))
             {
-                s.SetCDR(INPUT(in));
-                token = NextToken(in);
-                //if (# . ) then there is an error since the CDR is missing
+                token = in.Next();
+
+                // () is equal to NILL
                 if (!token.equals(")"))
                 {
-                    throw new Exception("ERROR IN INPUT: Expected ')'");
-                }
-                else
-                {
-                    s.SetAtom(false);  //this is obviously not an atom
-                    s.SetValue("");   //non atomic has no value
+                    open.push(new OpenList());
+                    continue;  //token starts the first element
                 }
+                s = SExp.NIL;
             }
-            else  //no . then this must be in list notation
-            {
-                PushedToken(token);
-                s.SetCDR(INPUTList(in));
-            }
-        }
-        else  //no parens so must be atomic
-        {
-            //no punctuation in atomic
-            if (token.equals(")") || token.equals("."))
+            else if (token.equals(")") || token.equals("."))  //no punctuation in atomic
             {
                 throw new Exception("ERROR IN INPUT: '" + token + "' is a bad s expression");
             }
             else
             {
-                s = new SExp(token);
+                s = ParseInteger(token);
+                if (s == null)
+                {
+                    s = Intern(token);
+                }
+            }
+
+            //s is done, add it to the innermost open list until one needs more
+            while (true)
+            {
+                OpenList list = open.peek();
+                if (list == null)
+                {
+                    return s;
+                }
+                if (list.dotted)
+                {
+                    list.tail.cdr = s;
+                    token = in.Next();
+                    //if (# . ) then there is an error since the CDR is missing
+                    if (!token.equals(")"))
+                    {
+                        throw new Exception(list.head == list.tail
+                                ? "ERROR IN INPUT: Expected ')'"
+                                : "ERROR IN INPUT: Ended in middle of s expression");
+                    }
+                    open.pop();
+                    s = list.head;
+                    continue;
+                }
+
+                list.Add(s);
+                token = in.Next();
+                if (token.equals("."))
+                {
+                    list.dotted = true;
+                    token = in.Next();
+                } else if (token.equals(")"))
+                {
+                    list.tail.cdr = SExp.NIL;
+                    open.pop();
+                    s = list.head;
+                    continue;
+                }
+                break;  //token starts the next element, or the cdr
             }
         }
-        return s;
     }
 
-
     /**
-     * Read input in list notation
-     * @param in
-     * @return
-     * @throws java.lang.Exception
-     * @throws java.io.IOException
+     * A list INPUT has read part of, a chain of conses with a tail pointer
      */
-    private static SExp INPUTList(InputStream in) throws Exception, IOException
+    private static final class OpenList
     {
-        SExp s = new SExp();
-        String token = NextToken(in);
+        Cons head;
+        Cons tail;
+        boolean dotted;  //the next S expression read is the cdr
 
-        if (token.equals(")"))
+        void Add(SExp element)
         {
-            return SExp.NIL;
-        } else
-        {
-            if (token.equals("."))
+            Cons cons = new Cons(element, null);
+            if (head == null)
             {
-                throw new Exception("ERROR IN INPUT: misplaced '.'");
-            }
-        }
-        PushedToken(token);
-
-        s.SetCAR(INPUT(in));
-
-        token = NextToken(in);
-        if (token.equals("."))
-        {
-            s.SetCDR(INPUT(in));
-            token = NextToken(in);
-            if (!token.equals(")"))
+                head = cons;
+            } else
             {
-                throw new Exception("ERROR IN INPUT: Ended in middle of s expression");
+                tail.cdr = cons;
             }
-        } else
-        {
-            PushedToken(token);
-            s.SetCDR(INPUTList(in));
+            tail = cons;
         }
-        return s;
     }
 
     /**
@@ -588,81 +666,30 @@ public class SExp
      */
     public int Length()
     {
-        if (IsNull())
-        {
-            return 0;
-        }
-
-        if (IsAtomic())
-        {
-            return 1;
-        }
-
-        return 1 + cdr.Length();
-    }
-
-public static String NextToken(InputStream in) throws Exception
-    {
-        String token = "";
-
-        if (pushedToken != null)
-        {
-            token = pushedToken;
-            pushedToken = null;
-            return token;
-        }
-
-        int c = MoveNextRaw(in);
-
-        if (c == -1)
-        {
-            return "";
-        }
-
-        if (c == '(' || c == ')' || c == '.')
+        int length = 0;
+        for (SExp s = this; !s.IsNull(); s = s.CDR())
         {
-            token = String.valueOf((char) c);
-        } else
-        {
-            do
-            {
-                token += ((char) c);
-                in.mark(2);  //on reset comes back here
-                c = in.read();
-            } while (c != ')' && c != '(' && c != -1 && c != '\n' && c != '\t' && c != ' ');
-
-            if (c == ')' || c == '(' || c == '.')
+            length++;
+            if (s.IsAtomic())
             {
-                in.reset();
+                break;  //a dotted list counts its last atom
             }
         }
-        return token;
+        return length;
     }
 
-/**
- * Tokenizer Function to read raw input
- * @param in Inputstream
- * @return The raw values
- * @throws java.lang.Exception
- */
-    private static int MoveNextRaw(InputStream in) throws Exception
+    /**
+     * Get the length of a list that ends in NIL
+     * @return The length, or -1 for another atom or a list ending in one
+     */
+    public int ProperLength()
     {
-        int b;
-        do
+        int length = 0;
+        SExp s = this;
+        for (; !s.IsAtomic(); s = s.CDR())
         {
-            b = in.read();
-        } while (b == ' ' || b == '\t' || b == '\n');  
-        //ignore spaces and newlines this lets input span lines, this allows multiline input
-
-        return b;
-    }
-/**
- * Tokenizer function to get the next valid token
- * @param token The tokenized token
- */
-    public static void PushedToken(String token)
-    {
-        pushedToken = token;
+            length++;
+        }
+        return s.IsNull() ? length : -1;
     }
 }
-
@@ -0,0 +1,174 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * LISP stack sampler, turned on by running java with -Dlisp.sample=file.
+ * Each thread keeps a shadow stack of the names of the Lisp functions it is
+ * in, pushed and popped through the Profiler's hooks, and a daemon thread
+ * reads every busy thread's shadow stack each -Dlisp.sample.interval
+ * milliseconds (10 by default).  At exit the samples are written to the file
+ * as collapsed stacks, "outer;inner count" on a line, which flame graph
+ * tools read.  A stack is read while its thread runs on, so a sample can
+ * now and then mix two neighbouring stacks.
+ */
+public final class Sampler
+{
+    final static String FILE = System.getProperty("lisp.sample");
+    final static boolean ON = FILE != null;
+    final static long INTERVAL = Math.max(1, Long.getLong("lisp.sample.interval", 10));
+
+    /**
+     * The shadow stack of one thread, written by it and read by the sampler
+     */
+    private static final class Shadow
+    {
+        final Thread thread = Thread.currentThread();
+        volatile String[] names = new String[64];
+        volatile int depth;
+    }
+
+    //the shadow stacks of the threads that have run Lisp
+    private final static Queue<Shadow> threads = new ConcurrentLinkedQueue<Shadow>();
+    private final static ThreadLocal<Shadow> shadows = ThreadLocal.withInitial(() ->
+    {
+        Shadow s = new Shadow();
+        threads.add(s);
+        return s;
+    });
+    //the number of times each collapsed stack was seen
+    private final static Map<String, Long> samples = new ConcurrentHashMap<String, Long>();
+
+    static
+    {
+        if (ON)
+        {
+            Thread sampler = new Thread(Sampler::Run, "lisp-sampler");
+            sampler.setDaemon(true);
+            sampler.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() ->
+            {
+                try
+                {
+                    Write();
+                } catch (IOException e)
+                {
+                    System.err.println("cannot write samples: " + e);
+                }
+            }, "lisp-samples"));
+        }
+    }
+
+    private Sampler()
+    {
+    }
+
+    /**
+     * Push a function on this thread's shadow stack
+     * @param name The function's name
+     */
+    static void Push(String name)
+    {
+        Shadow s = shadows.get();
+        String[] names = s.names;
+        int depth = s.depth;
+        if (depth == names.length)
+        {
+            names = s.names = Arrays.copyOf(names, depth * 2);
+        }
+        names[depth] = name;
+        s.depth = depth + 1;
+    }
+
+    /**
+     * Pop the function pushed last
+     */
+    static void Pop()
+    {
+        Shadow s = shadows.get();
+        s.depth--;
+    }
+
+    /**
+     * Get the depth of this thread's shadow stack
+     * @return The depth, for Unwind
+     */
+    static int Depth()
+    {
+        return shadows.get().depth;
+    }
+
+    /**
+     * Pop the functions an error went out of
+     * @param depth What Depth was before they were pushed
+     */
+    static void Unwind(int depth)
+    {
+        Shadow s = shadows.get();
+        if (s.depth > depth)
+        {
+            s.depth = depth;
+        }
+    }
+
+    private static void Run()
+    {
+        StringBuilder stack = new StringBuilder();
+        while (true)
+        {
+            try
+            {
+                Thread.sleep(INTERVAL);
+            } catch (InterruptedException e)
+            {
+                return;
+            }
+            for (Iterator<Shadow> i = threads.iterator(); i.hasNext(); )
+            {
+                Shadow s = i.next();
+                if (!s.thread.isAlive())
+                {
+                    i.remove();
+                    continue;
+                }
+                int depth = s.depth;
+                String[] names = s.names;
+                depth = Math.min(depth, names.length);
+                if (depth == 0)
+                {
+                    continue;  //not running Lisp
+                }
+                stack.setLength(0);
+                for (int j = 0; j < depth; j++)
+                {
+                    if (j > 0)
+                    {
+                        stack.append(';');
+                    }
+                    stack.append(names[j]);
+                }
+                samples.merge(stack.toString(), 1L, Long::sum);
+            }
+        }
+    }
+
+    /**
+     * Write the samples taken so far to the file, replacing what it held
+     * @throws java.io.IOException
+     */
+    public static void Write() throws IOException
+    {
+        if (!ON)
+        {
+            throw new IOException("not sampling, there is no -Dlisp.sample file");
+        }
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FILE), StandardCharsets.UTF_8)))
+        {
+            for (Map.Entry<String, Long> e : new TreeMap<String, Long>(samples).entrySet())
+            {
+                out.write(e.getKey() + " " + e.getValue() + "\n");
+            }
+        }
+    }
+}
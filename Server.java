@@ -0,0 +1,263 @@
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * LISP server, run by -serve.  It listens on a local TCP port or a Unix
+ * domain socket and gives each connection a session of its own, on a thread
+ * of its own.
+ * A connection speaks the read-eval-print protocol main speaks on standard
+ * input and output, or with -framed, requests and responses that are each a
+ * four byte big-endian length and that many bytes of UTF-8: a request holds
+ * any number of forms, and its response the line printed for each of them.
+ * A request over MAX_REQUEST bytes gets an error response and the
+ * connection is closed, before anything is allocated for it.  In framed mode
+ * -timeout limits a whole request: once it has run out, the request's
+ * remaining forms are answered with the timeout error.
+ * A Unix domain socket left behind by a server that is no longer running is
+ * removed before listening, and the server removes its own when it stops.
+ */
+final class Server
+{
+    //bytes in one framed request
+    final static int MAX_REQUEST = 16 << 20;
+
+    private final Supplier<Interpreter> sessions;
+    private final Semaphore connections;
+    private final boolean framed;
+
+    /**
+     * @param sessions Makes the session for each connection
+     * @param maxConnections Connections served at once, more are turned away
+     * @param framed true for the framed protocol
+     */
+    Server(Supplier<Interpreter> sessions, int maxConnections, boolean framed)
+    {
+        this.sessions = sessions;
+        this.connections = new Semaphore(maxConnections);
+        this.framed = framed;
+    }
+
+    /**
+     * Get the address to listen on
+     * @param address A port number, for the loopback interface, or the path
+     * of a Unix domain socket
+     * @return The address
+     */
+    static SocketAddress Address(String address)
+    {
+        try
+        {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(address));
+        } catch (NumberFormatException e)
+        {
+            return UnixDomainSocketAddress.of(address);
+        }
+    }
+
+    /**
+     * Accept connections until the listener is closed
+     * @param address Where to listen
+     * @throws java.io.IOException
+     */
+    void Serve(SocketAddress address) throws IOException
+    {
+        Path socket = null;
+        if (address instanceof UnixDomainSocketAddress)
+        {
+            socket = ((UnixDomainSocketAddress) address).getPath();
+            RemoveStale((UnixDomainSocketAddress) address);
+        }
+        ServerSocketChannel listener = ServerSocketChannel.open(socket != null
+                ? StandardProtocolFamily.UNIX : StandardProtocolFamily.INET);
+        listener.bind(address);
+        if (socket != null)
+        {
+            socket.toFile().deleteOnExit();  //for a server stopped by a signal
+        }
+        System.err.println("listening on " + listener.getLocalAddress());
+        Metrics.Register();
+
+        ExecutorService threads = Interpreter.SessionExecutor();
+        try
+        {
+            while (true)
+            {
+                final SocketChannel channel = listener.accept();
+                if (!connections.tryAcquire())
+                {
+                    Refuse(channel);
+                    continue;
+                }
+                threads.execute(() ->
+                {
+                    try
+                    {
+                        Converse(channel);
+                    } catch (IOException | RuntimeException | StackOverflowError e)
+                    {
+                        System.err.println("connection failed: " + e);
+                    } finally
+                    {
+                        connections.release();
+                        Close(channel);
+                    }
+                });
+            }
+        } finally
+        {
+            threads.shutdown();
+            listener.close();
+            if (socket != null)
+            {
+                Files.deleteIfExists(socket);
+            }
+        }
+    }
+
+    /**
+     * Delete the file of a Unix domain socket nothing is listening on, as a
+     * server that was killed leaves it.  Anything else at the path is left
+     * for bind to fail on
+     * @param address The socket's address
+     * @throws java.io.IOException if a server is listening on it
+     */
+    private static void RemoveStale(UnixDomainSocketAddress address) throws IOException
+    {
+        Path path = address.getPath();
+        BasicFileAttributes attributes;
+        try
+        {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e)
+        {
+            return;
+        }
+        if (!attributes.isOther())
+        {
+            return;  //a file, directory or link, not a socket
+        }
+        try (SocketChannel probe = SocketChannel.open(address))
+        {
+            throw new BindException(path + " is in use by another server");
+        } catch (ConnectException e)
+        {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private void Converse(SocketChannel channel) throws IOException
+    {
+        Interpreter session = sessions.get();
+        InputStream in = Channels.newInputStream(channel);
+        OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+        if (!framed)
+        {
+            session.Repl(new Lexer(new InputStreamReader(in, StandardCharsets.UTF_8)),
+                    new PrintStream(out, false, StandardCharsets.UTF_8));
+            return;
+        }
+
+        DataInputStream requests = new DataInputStream(new BufferedInputStream(in));
+        DataOutputStream responses = new DataOutputStream(out);
+        while (true)
+        {
+            int length;
+            try
+            {
+                length = requests.readInt();
+            } catch (EOFException e)
+            {
+                return;  //the client is done
+            }
+            if (length < 0 || length > MAX_REQUEST)
+            {
+                Send(responses, Interpreter.ERROR_CHARS + "ERROR IN SERVER: bad request length " + length + "\n");
+                throw new IOException("bad request length " + length);
+            }
+            byte[] request = new byte[length];
+            requests.readFully(request);
+            Send(responses, Answer(session, new String(request, StandardCharsets.UTF_8)));
+        }
+    }
+
+    /**
+     * Run the forms of a request, within the session's timeout all together
+     * @return The line printed for each form
+     */
+    private static String Answer(Interpreter session, String request)
+    {
+        StringBuilder lines = new StringBuilder();
+        Lexer in = new Lexer(new StringReader(request));
+        if (session.timeout > 0)
+        {
+            session.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(session.timeout);
+        }
+        try
+        {
+            while (true)
+            {
+                try
+                {
+                    SExp input = SExp.INPUT(in);
+                    if (input == null)
+                    {
+                        return lines.toString();
+                    }
+                    lines.append(Interpreter.Show(session.Evaluate(input)));
+                } catch (Exception e)
+                {
+                    lines.append(Interpreter.ERROR_CHARS).append(e.getMessage());
+                }
+                lines.append('\n');
+            }
+        } finally
+        {
+            session.deadline = 0;
+        }
+    }
+
+    private static void Send(DataOutputStream out, String text) throws IOException
+    {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.flush();
+    }
+
+    private void Refuse(SocketChannel channel)
+    {
+        String message = Interpreter.ERROR_CHARS + "ERROR IN SERVER: too many connections\n";
+        try
+        {
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+            if (framed)
+            {
+                Send(out, message);
+            } else
+            {
+                out.write(message.getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e)
+        {
+            //it is being turned away anyway
+        }
+        Close(channel);
+    }
+
+    private static void Close(SocketChannel channel)
+    {
+        try
+        {
+            channel.close();
+        } catch (IOException e)
+        {
+            //nothing more to say to it
+        }
+    }
+}
@@ -0,0 +1,70 @@
+import java.lang.ref.WeakReference;
+
+/**
+ * LISP interned symbol.
+ * There is exactly one Symbol object per (case folded) identifier, handed out
+ * by SExp.Intern, so symbols can be compared by reference.
+ */
+public final class Symbol extends SExp
+{
+    private final String name;
+
+    /**
+     * Can the symbol be evaluated: its name is an identifier or an integer.
+     * Checked once here, since EVAL asks on every free variable
+     */
+    final boolean valid;
+
+    /**
+     * Cached function definition, maintained by the DList that owns it and
+     * held weakly, since the symbol outlives every session
+     */
+    WeakReference<Function> function;
+
+    /**
+     * The builtin this symbol names, set by Primitive.Register
+     */
+    Primitive primitive;
+
+    /**
+     * Only the symbol table creates symbols
+     * @param name The canonical (upper case) name
+     */
+    Symbol(String name)
+    {
+        this.name = name;
+        this.valid = SExp.ParseInteger(name) != null || IsIdentifier(name);
+    }
+
+    /**
+     * Is a name an identifier
+     * @param name The name
+     * @return true for a letter followed by letters and digits
+     */
+    static boolean IsIdentifier(String name)
+    {
+        //first char must be a letter
+        if (name.isEmpty() || !Character.isLetter(name.charAt(0)))
+        {
+            return false;
+        }
+        //subsequent characters can be letters or digits, but no punctuation
+        for (int i = 1; i < name.length(); i++)
+        {
+            if (!Character.isLetterOrDigit(name.charAt(i)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the name
+     * @return The canonical name
+     */
+    public String GetValue()
+    {
+        return name;
+    }
+}
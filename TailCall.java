@@ -0,0 +1,17 @@
+/**
+ * LISP call in tail position, handed back by compiled code instead of made.
+ * The code that ran the compiled function makes the call in its own loop, so
+ * functions calling each other in tail position do not grow the Java stack.
+ * It never escapes to Lisp code.
+ */
+final class TailCall extends SExp
+{
+    final Function fn;
+    final AList frame;
+
+    TailCall(Function fn, AList frame)
+    {
+        this.fn = fn;
+        this.frame = frame;
+    }
+}
@@ -0,0 +1,401 @@
+import java.util.*;
+
+/**
+ * LISP virtual machine, runs Bytecode.
+ * One loop switches over the instructions.  Values live on an array stack
+ * and a call saves the caller's code, pc and frame base in arrays, so a Lisp
+ * call never makes a Java call and recursion depth is limited by the heap,
+ * not the thread's stack.  A frame is the window of the stack holding the
+ * call's arguments.
+ * It is a stack machine rather than a register machine: parameters are read
+ * from fixed slots of the frame window, and temporaries are pushed and popped,
+ * so no register allocation is done.  A function compiled by the Jit runs its
+ * compiled code instead, and a pure function's result comes from the memo
+ * table, as in the other engines.  Compiled code recurses on the Java stack,
+ * so if it overflows the rest of the run stays in the VM.
+ */
+public final class VM
+{
+    private final DList dList;
+
+    private Object[] stack = new Object[256];
+
+    //the saved state of each calling frame
+    private Bytecode[] codes = new Bytecode[64];
+    private int[] pcs = new int[64];
+    private int[] bases = new int[64];
+    private boolean[] memoize = new boolean[64];  //the call's result goes into the memo table
+    private Events.Call[] events = new Events.Call[64];  //with -Dlisp.jfr.calls=true
+
+    public VM(DList dList)
+    {
+        this.dList = dList;
+    }
+
+    /**
+     * Run code to completion
+     * @param entry The code of a top level form
+     * @param global The global association list
+     * @return The value
+     * @throws java.lang.Exception
+     */
+    public SExp Run(Bytecode entry, AList global) throws Exception
+    {
+        Bytecode bc = entry;
+        int[] code = bc.code;
+        Object[] k = bc.constants;
+        Object[] stack = Ensure(0, bc.maxStack);
+        Memo memo = dList.memo;
+        boolean compiled = true;  //call compiled code until it overflows the Java stack
+        int depth = 0;
+        int base = 0;
+        int sp = 0;
+        int pc = 0;
+
+        while (true)
+        {
+            switch (code[pc++])
+            {
+                case Bytecode.CONST:
+                    stack[sp++] = k[code[pc++]];
+                    break;
+
+                case Bytecode.LOCAL:
+                    stack[sp++] = stack[base + code[pc++]];
+                    break;
+
+                case Bytecode.DYNAMIC:
+                {
+                    SExp name = (SExp) k[code[pc++]];
+                    SExp binding = Lookup(name, bc, base, depth, global);
+                    if (binding == null)
+                    {
+                        throw new Exception("ERROR IN EVAL: " + name.GetValue() + " is not bound");
+                    }
+                    stack[sp++] = binding;
+                    break;
+                }
+
+                case Bytecode.FAIL:
+                    throw new Exception((String) k[code[pc++]]);
+
+                case Bytecode.INTERPRET:
+                {
+                    SExp form = (SExp) k[code[pc++]];
+                    stack[sp++] = Interpreter.EVAL(form, Frames(bc, base, depth, global), dList, false);
+                    break;
+                }
+
+                case Bytecode.JUMP:
+                    pc = code[pc];
+                    break;
+
+                case Bytecode.JUMPIFNOT:
+                    if (Interpreter.IsTrue((SExp) stack[--sp]))
+                    {
+                        pc++;
+                    } else
+                    {
+                        pc = code[pc];
+                    }
+                    break;
+
+                case Bytecode.CONDFAIL:
+                    throw new Exception("ERROR IN EVCON: All conditionals cannot be null");
+
+                case Bytecode.PRIM1:
+                {
+                    Primitive.Unary p = (Primitive.Unary) k[code[pc++]];
+                    stack[sp - 1] = p.Call((SExp) stack[sp - 1]);
+                    break;
+                }
+
+                case Bytecode.PRIM2:
+                {
+                    Primitive.Binary p = (Primitive.Binary) k[code[pc++]];
+                    SExp b = (SExp) stack[--sp];
+                    stack[sp - 1] = p.Call((SExp) stack[sp - 1], b);
+                    break;
+                }
+
+                case Bytecode.PRIMN:
+                {
+                    Primitive p = (Primitive) k[code[pc++]];
+                    int n = code[pc++];
+                    SExp x = SExp.NIL;
+                    for (int i = 0; i < n; i++)
+                    {
+                        x = SExp.Pair((SExp) stack[--sp], x);
+                    }
+                    stack[sp++] = p.Apply(x);
+                    break;
+                }
+
+                case Bytecode.FUNCTION:
+                {
+                    CallSite site = (CallSite) k[code[pc++]];
+                    Function fn = site.Lookup(dList);
+                    if (fn == null)
+                    {
+                        throw new Exception("ERROR IN EVAL: '" + site.CAR().GetValue() + "' is not defined");
+                    }
+                    stack[sp++] = fn;
+                    break;
+                }
+
+                case Bytecode.CALL:
+                {
+                    Interpreter.Poll();
+                    int n = code[pc++];
+                    Function fn = (Function) stack[sp - n - 1];
+                    if (n != fn.arity)
+                    {
+                        throw Interpreter.ParamCountError(fn.name.GetValue(), fn.arity, n);
+                    }
+                    boolean pure = memo != null && memo.IsPure(fn);
+                    if (pure)
+                    {
+                        SExp value = memo.Get(fn, Arguments(sp - n, n));
+                        if (value != null)
+                        {
+                            sp -= n + 1;
+                            stack[sp++] = value;
+                            break;
+                        }
+                    }
+                    JitCode jit = compiled ? fn.Tier() : null;
+                    if (jit != null)
+                    {
+                        SExp[] values = Arguments(sp - n, n);
+                        SExp value;
+                        try
+                        {
+                            Events.Call event = Events.CALLS ? Events.Begin(fn) : null;
+                            value = Function.Run(jit, new AList(Frames(bc, base, depth, global), fn.pars, values));
+                            if (Events.CALLS)
+                            {
+                                Events.End(event);
+                            }
+                        } catch (StackOverflowError e)
+                        {
+                            //compiled code recurses on the Java stack: finish this run here instead
+                            compiled = false;
+                            value = null;
+                        }
+                        if (value != null)
+                        {
+                            if (pure)
+                            {
+                                memo.Put(fn, values, value);
+                            }
+                            sp -= n + 1;
+                            stack[sp++] = value;
+                            break;
+                        }
+                    }
+                    if (depth == codes.length)
+                    {
+                        codes = Arrays.copyOf(codes, depth * 2);
+                        pcs = Arrays.copyOf(pcs, depth * 2);
+                        bases = Arrays.copyOf(bases, depth * 2);
+                        memoize = Arrays.copyOf(memoize, depth * 2);
+                        events = Arrays.copyOf(events, depth * 2);
+                    }
+                    codes[depth] = bc;
+                    pcs[depth] = pc;
+                    bases[depth] = base;
+                    memoize[depth] = pure;
+                    if (Events.CALLS)
+                    {
+                        events[depth] = Events.Begin(fn);
+                    }
+                    depth++;
+                    if (Profiler.ON)
+                    {
+                        Profiler.Enter(fn);
+                    }
+
+                    bc = fn.Bytecode();
+                    code = bc.code;
+                    k = bc.constants;
+                    pc = 0;
+                    base = sp - n;
+                    stack = Ensure(sp, bc.maxStack);
+                    break;
+                }
+
+                case Bytecode.RETURN:
+                {
+                    Object result = stack[sp - 1];
+                    if (depth == 0)
+                    {
+                        return (SExp) result;
+                    }
+                    if (Profiler.ON)
+                    {
+                        Profiler.Exit();
+                    }
+                    depth--;
+                    if (Events.CALLS)
+                    {
+                        Events.End(events[depth]);
+                        events[depth] = null;
+                    }
+                    if (memoize[depth])
+                    {
+                        memo.Put((Function) stack[base - 1], Arguments(base, bc.arity), (SExp) result);
+                    }
+                    sp = base - 1;  //drop the arguments and the function
+                    bc = codes[depth];
+                    codes[depth] = null;
+                    code = bc.code;
+                    k = bc.constants;
+                    pc = pcs[depth];
+                    base = bases[depth];
+                    stack[sp++] = result;
+                    break;
+                }
+
+                case Bytecode.CAR:
+                {
+                    SExp a = (SExp) stack[sp - 1];
+                    if (a.IsAtomic())
+                    {
+                        throw new Exception("ERROR IN APPLY: CAR cannot be performed on atom");
+                    }
+                    stack[sp - 1] = a.CAR();
+                    break;
+                }
+
+                case Bytecode.CDR:
+                {
+                    SExp a = (SExp) stack[sp - 1];
+                    if (a.IsAtomic())
+                    {
+                        throw new Exception("ERROR IN APPLY: CDR cannot be performed on atom");
+                    }
+                    stack[sp - 1] = a.CDR();
+                    break;
+                }
+
+                case Bytecode.NULL:
+                    stack[sp - 1] = ((SExp) stack[sp - 1]).IsNull() ? SExp.T : SExp.NIL;
+                    break;
+
+                case Bytecode.CONS:
+                {
+                    SExp b = (SExp) stack[--sp];
+                    stack[sp - 1] = SExp.CONS((SExp) stack[sp - 1], b);
+                    break;
+                }
+
+                case Bytecode.EQ:
+                {
+                    SExp b = (SExp) stack[--sp];
+                    stack[sp - 1] = SExp.EQ((SExp) stack[sp - 1], b);
+                    break;
+                }
+
+                case Bytecode.PLUS:
+                {
+                    SExp b = (SExp) stack[--sp];
+                    stack[sp - 1] = SExp.PLUS((SExp) stack[sp - 1], b);
+                    break;
+                }
+
+                case Bytecode.MINUS:
+                {
+                    SExp b = (SExp) stack[--sp];
+                    stack[sp - 1] = SExp.MINUS((SExp) stack[sp - 1], b);
+                    break;
+                }
+
+                case Bytecode.LESS:
+                {
+                    SExp b = (SExp) stack[--sp];
+                    stack[sp - 1] = SExp.LESS((SExp) stack[sp - 1], b);
+                    break;
+                }
+
+                case Bytecode.GREATER:
+                {
+                    SExp b = (SExp) stack[--sp];
+                    stack[sp - 1] = SExp.GREATER((SExp) stack[sp - 1], b);
+                    break;
+                }
+
+                default:
+                    throw new IllegalStateException("bad opcode " + code[pc - 1]);
+            }
+        }
+    }
+
+    /**
+     * Make sure the stack has room for a frame
+     * @param sp The top of the stack
+     * @param needed The slots the frame's code uses
+     * @return The stack, grown if it had to be
+     */
+    private Object[] Ensure(int sp, int needed)
+    {
+        if (sp + needed > stack.length)
+        {
+            stack = Arrays.copyOf(stack, Math.max(stack.length * 2, sp + needed));
+        }
+        return stack;
+    }
+
+    /**
+     * Copy arguments off the stack
+     * @param from The first argument's slot
+     * @param n The number of arguments
+     * @return The values
+     */
+    private SExp[] Arguments(int from, int n)
+    {
+        SExp[] values = new SExp[n];
+        System.arraycopy(stack, from, values, 0, n);
+        return values;
+    }
+
+    /**
+     * Look a free variable up by name through the frames, newest first
+     */
+    private SExp Lookup(SExp name, Bytecode bc, int base, int depth, AList global)
+    {
+        for (int d = depth; ; d--)
+        {
+            int index = AList.IndexOf(bc.pars, name);
+            if (index >= 0)
+            {
+                return (SExp) stack[base + index];
+            }
+            if (d == 0)
+            {
+                return global.GetBindingPair(name);
+            }
+            bc = codes[d - 1];
+            base = bases[d - 1];
+        }
+    }
+
+    /**
+     * Copy the frames into an association list, for handing a form to EVAL
+     */
+    private AList Frames(Bytecode bc, int base, int depth, AList global)
+    {
+        AList aList = global;
+        for (int d = 0; d <= depth; d++)
+        {
+            Bytecode fbc = d == depth ? bc : codes[d];
+            int fbase = d == depth ? base : bases[d];
+            if (fbc.arity > 0)
+            {
+                SExp[] values = new SExp[fbc.arity];
+                System.arraycopy(stack, fbase, values, 0, fbc.arity);
+                aList = new AList(aList, fbc.pars, values);
+            }
+        }
+        return aList;
+    }
+}
@@ -0,0 +1,52 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * EVAL on recursive programs, on each engine.  The functions are defined
+ * once per trial, so the measured calls run them hot (compiled by the Jit
+ * where the engine uses it).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvalBenchmark
+{
+    private static final String DEFINITIONS =
+            "(DEFUN MINUS2 (A B) (MINUS A B))\n"
+            + "(DEFUN NOTSOSILLY (A B) (COND ((EQ A 0) (PLUS B 1)) ((EQ B 0) (NOTSOSILLY (MINUS2 A 1) 1))"
+            + " (T (NOTSOSILLY (MINUS2 A 1) (NOTSOSILLY A (MINUS2 B 1))))))\n"
+            + "(DEFUN FIB (N) (COND ((LESS N 2) N) (T (PLUS (FIB (MINUS N 1)) (FIB (MINUS N 2))))))\n"
+            + "(DEFUN ACK (M N) (COND ((EQ M 0) (PLUS N 1)) ((EQ N 0) (ACK (MINUS M 1) 1))"
+            + " (T (ACK (MINUS M 1) (ACK M (MINUS N 1))))))\n"
+            + "(DEFUN APPEND (X Y) (COND ((NULL X) Y) (T (CONS (CAR X) (APPEND (CDR X) Y)))))\n"
+            + "(DEFUN REV (L) (COND ((NULL L) NIL) (T (APPEND (REV (CDR L)) (CONS (CAR L) NIL)))))\n"
+            + "(DEFUN IOTA (N) (COND ((EQ N 0) NIL) (T (CONS N (IOTA (MINUS N 1))))))\n";
+
+    @Param({"TREE", "NODES", "VM", "CEK"})
+    public String engine;
+
+    @Param({"(NOTSOSILLY 2 3)", "(FIB 20)", "(ACK 2 50)", "(REV (IOTA 200))"})
+    public String workload;
+
+    private Object session;
+    private Object form;
+
+    @Setup
+    public void Setup() throws Throwable
+    {
+        session = Lisp.NewSession(engine);
+        Lisp.EvaluateAll(session, DEFINITIONS);
+        form = Lisp.ReadAll(workload).get(0);
+    }
+
+    @Benchmark
+    public Object Eval() throws Throwable
+    {
+        return Lisp.Evaluate(session, form);
+    }
+}
@@ -0,0 +1,186 @@
+package bench;
+
+import java.io.*;
+import java.lang.invoke.*;
+import java.util.*;
+
+/**
+ * The interpreter, as the benchmarks call it.
+ * Its classes are in the unnamed package, which a named package cannot
+ * import, so they are reached through method handles.  The handles are
+ * constants, so once compiled the calls cost what direct calls cost.
+ */
+final class Lisp
+{
+    private static final MethodHandle NEW_LEXER = Constructor("Lexer", Reader.class);
+    private static final MethodHandle INPUT = Static("SExp", "INPUT", Type("SExp"), Type("Lexer"));
+    private static final MethodHandle INTERN = Static("SExp", "Intern", Type("Symbol"), String.class);
+    private static final MethodHandle SHOW = Virtual("SExp", "ToStringDotNotation", String.class);
+    private static final MethodHandle NEW_SESSION = Constructor("Interpreter", Type("Engine"));
+    private static final MethodHandle EVALUATE = Virtual("Interpreter", "Evaluate", Type("SExp"), Type("SExp"));
+    private static final MethodHandle NEW_ALIST = Constructor("AList");
+    private static final MethodHandle ADD_BINDINGS = Static("AList", "AddBindingPairs", Type("AList"), Type("AList"), Type("SExp"), Type("SExp"));
+    private static final MethodHandle GET_BINDING = Virtual("AList", "GetBindingPair", Type("SExp"), Type("SExp"));
+    private static final MethodHandle NEW_DLIST = Constructor("DList");
+    private static final MethodHandle ADD = Virtual("DList", "ADD", Type("SExp"), Type("SExp"));
+    private static final MethodHandle GET_FUNCTION = Virtual("DList", "GetFunctionDefinition", Type("Function"), Type("SExp"));
+
+    private Lisp()
+    {
+    }
+
+    /**
+     * Read every form of a text
+     * @param source The text
+     * @return The forms, in order
+     */
+    static List<Object> ReadAll(String source) throws Throwable
+    {
+        Object lexer = NewLexer(source);
+        ArrayList<Object> forms = new ArrayList<Object>();
+        for (Object form = Read(lexer); form != null; form = Read(lexer))
+        {
+            forms.add(form);
+        }
+        return forms;
+    }
+
+    /**
+     * Read one form
+     * @return The form, or null at the end of the text
+     */
+    static Object Read(Object lexer) throws Throwable
+    {
+        return (Object) INPUT.invokeExact(lexer);
+    }
+
+    static Object NewLexer(String source) throws Throwable
+    {
+        return (Object) NEW_LEXER.invokeExact((Object) new StringReader(source));
+    }
+
+    static Object Intern(String name) throws Throwable
+    {
+        return (Object) INTERN.invokeExact((Object) name);
+    }
+
+    static String Show(Object sexp) throws Throwable
+    {
+        return (String) SHOW.invokeExact(sexp);
+    }
+
+    /**
+     * Start a session
+     * @param engine The name of an Engine constant
+     * @return The session
+     */
+    static Object NewSession(String engine) throws Throwable
+    {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Object constant = Enum.valueOf((Class) Type("Engine"), engine);
+        return (Object) NEW_SESSION.invokeExact(constant);
+    }
+
+    static Object Evaluate(Object session, Object form) throws Throwable
+    {
+        return (Object) EVALUATE.invokeExact(session, form);
+    }
+
+    /**
+     * Evaluate every form of a text in a session
+     * @return The value of the last form
+     */
+    static Object EvaluateAll(Object session, String source) throws Throwable
+    {
+        Object value = null;
+        for (Object form : ReadAll(source))
+        {
+            value = Evaluate(session, form);
+        }
+        return value;
+    }
+
+    static Object NewAList() throws Throwable
+    {
+        return (Object) NEW_ALIST.invokeExact();
+    }
+
+    static Object AddBindingPairs(Object aList, Object pars, Object values) throws Throwable
+    {
+        return (Object) ADD_BINDINGS.invokeExact(aList, pars, values);
+    }
+
+    static Object GetBindingPair(Object aList, Object var) throws Throwable
+    {
+        return (Object) GET_BINDING.invokeExact(aList, var);
+    }
+
+    static Object NewDList() throws Throwable
+    {
+        return (Object) NEW_DLIST.invokeExact();
+    }
+
+    static Object Define(Object dList, Object def) throws Throwable
+    {
+        return (Object) ADD.invokeExact(dList, def);
+    }
+
+    static Object GetFunctionDefinition(Object dList, Object name) throws Throwable
+    {
+        return (Object) GET_FUNCTION.invokeExact(dList, name);
+    }
+
+    private static Class<?> Type(String name)
+    {
+        try
+        {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e)
+        {
+            throw new IllegalStateException("the interpreter is not on the class path", e);
+        }
+    }
+
+    private static MethodHandle Constructor(String owner, Class<?>... parameters)
+    {
+        try
+        {
+            MethodHandle h = MethodHandles.publicLookup().findConstructor(Type(owner), MethodType.methodType(void.class, parameters));
+            return h.asType(MethodType.genericMethodType(parameters.length));
+        } catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle Static(String owner, String name, Class<?> result, Class<?>... parameters)
+    {
+        try
+        {
+            MethodHandle h = MethodHandles.publicLookup().findStatic(Type(owner), name, MethodType.methodType(result, parameters));
+            return Generic(h, result);
+        } catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle Virtual(String owner, String name, Class<?> result, Class<?>... parameters)
+    {
+        try
+        {
+            MethodHandle h = MethodHandles.publicLookup().findVirtual(Type(owner), name, MethodType.methodType(result, parameters));
+            return Generic(h, result);
+        } catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //every argument an Object, and the result too unless it is a String
+    private static MethodHandle Generic(MethodHandle h, Class<?> result)
+    {
+        MethodType type = MethodType.genericMethodType(h.type().parameterCount());
+        return h.asType(result == String.class ? type.changeReturnType(String.class) : type);
+    }
+}
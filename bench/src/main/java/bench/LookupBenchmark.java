@@ -0,0 +1,90 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Variable lookup through frames of different depths (AList), and function
+ * lookup among many definitions (DList).  Each kind of lookup has a state of
+ * its own, so it only runs for the parameter it depends on.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupBenchmark
+{
+    /**
+     * Nested frames, each binding two variables
+     */
+    @State(Scope.Benchmark)
+    public static class Frames
+    {
+        @Param({"1", "10", "100"})
+        public int depth;
+
+        Object frame;
+        Object outermost;  //bound in the first frame only
+        Object innermost;  //bound in the last frame
+
+        @Setup
+        public void Setup() throws Throwable
+        {
+            frame = Lisp.NewAList();
+            for (int i = 0; i < depth; i++)
+            {
+                Object pars = Lisp.ReadAll("(V" + i + " W)").get(0);
+                Object values = Lisp.ReadAll("(" + i + " 0)").get(0);
+                frame = Lisp.AddBindingPairs(frame, pars, values);
+            }
+            outermost = Lisp.Intern("V0");
+            innermost = Lisp.Intern("V" + (depth - 1));
+        }
+    }
+
+    /**
+     * A DList with many functions defined, looked up in turn
+     */
+    @State(Scope.Thread)
+    public static class Definitions
+    {
+        @Param({"10", "10000"})
+        public int definitions;
+
+        Object dList;
+        Object[] names;
+        int next;
+
+        @Setup
+        public void Setup() throws Throwable
+        {
+            dList = Lisp.NewDList();
+            names = new Object[definitions];
+            for (int i = 0; i < definitions; i++)
+            {
+                Lisp.Define(dList, Lisp.ReadAll("(G" + i + " (X) (PLUS X " + i + "))").get(0));
+                names[i] = Lisp.Intern("G" + i);
+            }
+        }
+    }
+
+    @Benchmark
+    public Object OutermostVariable(Frames s) throws Throwable
+    {
+        return Lisp.GetBindingPair(s.frame, s.outermost);
+    }
+
+    @Benchmark
+    public Object InnermostVariable(Frames s) throws Throwable
+    {
+        return Lisp.GetBindingPair(s.frame, s.innermost);
+    }
+
+    @Benchmark
+    public Object Function(Definitions s) throws Throwable
+    {
+        s.next = s.next + 1 == s.names.length ? 0 : s.next + 1;
+        return Lisp.GetFunctionDefinition(s.dList, s.names[s.next]);
+    }
+}
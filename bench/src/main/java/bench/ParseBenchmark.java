@@ -0,0 +1,79 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Tokenizing and parsing with SExp.INPUT: many small forms, one long list,
+ * and one deeply nested form.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark
+{
+    @Param({"1000", "100000"})
+    public int size;
+
+    private String forms;
+    private String longList;
+    private String nested;
+
+    @Setup
+    public void Setup()
+    {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < size; i++)
+        {
+            b.append("(DEFUN F").append(i).append(" (X Y) (COND ((EQ X 0) (PLUS Y ").append(i)
+                    .append(")) (T (QUOTE (A . B)))))\n");
+        }
+        forms = b.toString();
+
+        b.setLength(0);
+        b.append("(QUOTE (");
+        for (int i = 0; i < size; i++)
+        {
+            b.append(i).append(" SYMBOL").append(i % 100).append(' ');
+        }
+        longList = b.append("))").toString();
+
+        b.setLength(0);
+        for (int i = 0; i < size; i++)
+        {
+            b.append("(A . ");
+        }
+        b.append("NIL");
+        for (int i = 0; i < size; i++)
+        {
+            b.append(')');
+        }
+        nested = b.toString();
+    }
+
+    @Benchmark
+    public void Forms(Blackhole bh) throws Throwable
+    {
+        Object lexer = Lisp.NewLexer(forms);
+        for (Object form = Lisp.Read(lexer); form != null; form = Lisp.Read(lexer))
+        {
+            bh.consume(form);
+        }
+    }
+
+    @Benchmark
+    public Object LongList() throws Throwable
+    {
+        return Lisp.Read(Lisp.NewLexer(longList));
+    }
+
+    @Benchmark
+    public Object Nested() throws Throwable
+    {
+        return Lisp.Read(Lisp.NewLexer(nested));
+    }
+}
@@ -0,0 +1,57 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Printing results with ToStringDotNotation: a long list and a deeply
+ * nested one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrintBenchmark
+{
+    @Param({"100", "10000"})
+    public int size;
+
+    private Object longList;
+    private Object nested;
+
+    @Setup
+    public void Setup() throws Throwable
+    {
+        StringBuilder b = new StringBuilder("(");
+        for (int i = 0; i < size; i++)
+        {
+            b.append(i).append(" X").append(i % 10).append(' ');
+        }
+        longList = Lisp.ReadAll(b.append(')').toString()).get(0);
+
+        b.setLength(0);
+        for (int i = 0; i < size; i++)
+        {
+            b.append("(");
+        }
+        for (int i = 0; i < size; i++)
+        {
+            b.append(')');
+        }
+        nested = Lisp.ReadAll(b.toString()).get(0);
+    }
+
+    @Benchmark
+    public String LongList() throws Throwable
+    {
+        return Lisp.Show(longList);
+    }
+
+    @Benchmark
+    public String Nested() throws Throwable
+    {
+        return Lisp.Show(nested);
+    }
+}
@@ -0,0 +1,96 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Every program in test/programs must print what its .out file holds, on
+ * every engine and with every option that changes how a form is run.  The
+ * build runs these once with conses on the heap and once with
+ * -Dlisp.arena=true
+ */
+class EnginesTest
+{
+    private final static Path PROGRAMS = Paths.get("test", "programs");
+
+    //the options main is given, as the sessions they make; -jit 0 turns the
+    //JIT off, -jit 1 compiles a function on its first call
+    private enum Options
+    {
+        DEFAULT(false, -1, 0, false),
+        JIT_FIRST_CALL(false, 1, 0, false),
+        JIT_SECOND_CALL(false, 2, 0, false),
+        MEMO(false, -1, 1000, false),
+        JIT_AND_MEMO(false, 1, 1000, false),
+        PARALLEL(false, -1, 0, true),
+        JIT_AND_PARALLEL(false, 1, 0, true),
+        PIPELINE(true, -1, 0, false);
+
+        final boolean pipelined;
+        final int jitThreshold;
+        final int memoEntries;
+        final boolean parallel;
+
+        Options(boolean pipelined, int jitThreshold, int memoEntries, boolean parallel)
+        {
+            this.pipelined = pipelined;
+            this.jitThreshold = jitThreshold;
+            this.memoEntries = memoEntries;
+            this.parallel = parallel;
+        }
+
+        Supplier<Interpreter> Sessions(Engine engine)
+        {
+            return Interpreter.Sessions(engine, jitThreshold, memoEntries, 64L << 20, parallel, 0);
+        }
+    }
+
+    static Stream<Arguments> Runs() throws IOException
+    {
+        ArrayList<Arguments> runs = new ArrayList<Arguments>();
+        try (DirectoryStream<Path> programs = Files.newDirectoryStream(PROGRAMS, "*.lisp"))
+        {
+            for (Path program : programs)
+            {
+                String name = program.getFileName().toString().replace(".lisp", "");
+                for (Engine engine : Engine.values())
+                {
+                    for (Options options : Options.values())
+                    {
+                        runs.add(Arguments.of(name, engine, options));
+                    }
+                }
+            }
+        }
+        runs.sort(Comparator.comparing(run -> run.get()[0].toString()));
+        return runs.stream();
+    }
+
+    @ParameterizedTest(name = "{0} {1} {2}")
+    @MethodSource("Runs")
+    void PrintsTheExpectedOutput(String name, Engine engine, Options options) throws IOException
+    {
+        String program = Files.readString(PROGRAMS.resolve(name + ".lisp"), StandardCharsets.UTF_8);
+        String expected = Files.readString(PROGRAMS.resolve(name + ".out"), StandardCharsets.UTF_8);
+        String printed = Transcript.Of(options.Sessions(engine), program, options.pipelined);
+        assertEquals(Transcript.Normalize(expected), printed.replace(System.lineSeparator(), "\n"));
+    }
+
+    //compiled code recurses on the Java stack; when it overflows the VM
+    //finishes the form on its own stack
+    @Test
+    void VMRecursesPastCompiledCode()
+    {
+        assertEquals(Transcript.Expect("DEEP", "1000000"),
+                Transcript.Of(Interpreter.Sessions(Engine.VM, 1, 0, 0, false, 0),
+                        "(DEFUN DEEP (N) (COND ((EQ N 0) 0) (T (PLUS 1 (DEEP (MINUS N 1))))))\n"
+                        + "(DEEP 1000000)\n", false));
+    }
+}
@@ -0,0 +1,106 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The reader on the inputs that are easy to get wrong: line ends, case,
+ * numbers past 64 bits, dots, malformed forms and input too deep or too long
+ * for a recursive reader
+ */
+class ParserTest
+{
+    @Test
+    void ReadsAcrossLineEndsAndTabs()
+    {
+        assertEquals(Transcript.Expect("(1 . 2)", "ABC"),
+                Transcript.Of("(CONS 1\r\n 2)\r\n\t(quote\tabc)\n"));
+    }
+
+    @Test
+    void ReadsNumbers()
+    {
+        assertEquals(Transcript.Expect("42", "-17", "8",
+                "9223372036854775807", "9223372036854775808",
+                "-9223372036854775808", "-9223372036854775809"),
+                Transcript.Of("42\n-17\n+8\n"
+                        + "9223372036854775807\n9223372036854775808\n"
+                        + "-9223372036854775808\n-9223372036854775809\n"));
+    }
+
+    @Test
+    void ArithmeticCarriesPast64Bits()
+    {
+        assertEquals(Transcript.Expect("9223372036854775808", "-9223372036854775809", "18446744073709551616"),
+                Transcript.Of("(PLUS 9223372036854775807 1)\n"
+                        + "(MINUS -9223372036854775808 1)\n"
+                        + "(TIMES 4294967296 4294967296)\n"));
+    }
+
+    @Test
+    void ReadsSymbolsThatLookLikeNumbers()
+    {
+        assertEquals(Transcript.Expect("A1B2", "12AB", "-", "+"),
+                Transcript.Of("(QUOTE A1B2)\n(QUOTE 12AB)\n(QUOTE -)\n(QUOTE +)\n"));
+    }
+
+    @Test
+    void ReadsListsAndDots()
+    {
+        assertEquals(Transcript.Expect("(A.B . C)", "NIL", "(NIL . NIL)", "(A . NIL)",
+                "(1 . (2 . (3 . NIL)))", "X"),
+                Transcript.Of("(QUOTE (A.B . C))\n(QUOTE ())\n(QUOTE (()))\n(QUOTE (A . NIL))\n"
+                        + "(QUOTE (1 . (2 . (3))))\n( CAR   ( QUOTE  ( X  Y ) ) )\n"));
+    }
+
+    @Test
+    void ReportsMalformedFormsAndReadsOn()
+    {
+        assertEquals(Transcript.Expect(
+                "**ERR** ERROR IN INPUT: Expected ')'",
+                "**ERR** ERROR IN EVAL: C is not bound",
+                "**ERR** ERROR IN INPUT: ')' is a bad s expression",
+                "**ERR** ERROR IN INPUT: ')' is a bad s expression",
+                "**ERR** ERROR IN INPUT: '.' is a bad s expression",
+                "**ERR** ERROR IN INPUT: ')' is a bad s expression",
+                "**ERR** ERROR IN INPUT: ')' is a bad s expression",
+                "**ERR** ERROR IN EVAL: 'Cons@' is an illegal function name",
+                "**ERR** ERROR IN INPUT: ')' is a bad s expression",
+                "3"),
+                Transcript.Of("(QUOTE (A . B . C))\n(QUOTE (.))\n((QUOTE A))\n)\n(PLUS 1 2)\n"));
+    }
+
+    @Test
+    void ReportsInputEndingInsideAForm()
+    {
+        assertEquals(Transcript.Expect("(A . (B . NIL))", "**ERR** ERROR IN INPUT: Ended in middle of s expression"),
+                Transcript.Of("(QUOTE (A B))\n(QUOTE (A B)"));
+    }
+
+    @Test
+    void ReadsDeepNesting()
+    {
+        int depth = 100000;
+        String printed = Transcript.Of("(QUOTE " + "(".repeat(depth) + ")".repeat(depth) + ")\n");
+        assertEquals(Transcript.Expect("(".repeat(depth - 1) + "NIL" + " . NIL)".repeat(depth - 1)), printed);
+    }
+
+    @Test
+    void ReadsDeepDottedTails()
+    {
+        int depth = 100000;
+        String printed = Transcript.Of("(QUOTE " + "(A . ".repeat(depth) + "NIL" + ")".repeat(depth) + ")\n");
+        assertEquals(Transcript.Expect("(A . ".repeat(depth) + "NIL" + ")".repeat(depth)), printed);
+    }
+
+    @Test
+    void ReadsLongLists()
+    {
+        int length = 200000;
+        StringBuilder program = new StringBuilder("(DEFUN LEN (L N) (COND ((NULL L) N) (T (LEN (CDR L) (PLUS N 1)))))\n(LEN (QUOTE (");
+        for (int i = 0; i < length; i++)
+        {
+            program.append(i).append(' ');
+        }
+        program.append(")) 0)\n");
+        assertEquals(Transcript.Expect("LEN", Integer.toString(length)), Transcript.Of(program.toString()));
+    }
+}
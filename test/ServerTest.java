@@ -0,0 +1,170 @@
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The server's two protocols, over Unix domain sockets in a directory of
+ * their own.  The servers run for as long as the tests do
+ */
+@Timeout(value = 20, unit = TimeUnit.SECONDS)
+class ServerTest
+{
+    private static UnixDomainSocketAddress framed;
+    private static UnixDomainSocketAddress repl;
+    private static Path directory;
+
+    @BeforeAll
+    static void Listen() throws IOException, InterruptedException
+    {
+        directory = Files.createTempDirectory("lisp");
+        directory.toFile().deleteOnExit();
+        framed = Start(directory.resolve("framed"), true);
+        repl = Start(directory.resolve("repl"), false);
+    }
+
+    private static UnixDomainSocketAddress Start(Path path, boolean framed) throws IOException, InterruptedException
+    {
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(path);
+        Server server = new Server(Interpreter.Sessions(Engine.TREE, -1, 0, 0, false, 200), 4, framed);
+        Thread thread = new Thread(() ->
+        {
+            try
+            {
+                server.Serve(address);
+            } catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }, "lisp-server-" + path.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+        //the socket file is made before the server listens on it
+        while (true)
+        {
+            try (SocketChannel probe = SocketChannel.open(address))
+            {
+                break;
+            } catch (IOException e)
+            {
+                Thread.sleep(10);
+            }
+        }
+        path.toFile().deleteOnExit();
+        return address;
+    }
+
+    @Test
+    void AnswersEachFormOfARequest() throws IOException
+    {
+        try (SocketChannel channel = SocketChannel.open(framed))
+        {
+            assertEquals("SQ\n144\n**ERR** ERROR IN APPLY: CAR cannot be performed on atom\n",
+                    Ask(channel, "(DEFUN SQ (X) (TIMES X X)) (SQ 12)\n(CAR 1)"));
+            assertEquals("9\n", Ask(channel, "(SQ 3)"));
+            assertEquals("", Ask(channel, ""));
+        }
+    }
+
+    @Test
+    void GivesEachConnectionItsOwnSession() throws IOException
+    {
+        try (SocketChannel first = SocketChannel.open(framed); SocketChannel second = SocketChannel.open(framed))
+        {
+            assertEquals("ONE\n", Ask(first, "(DEFUN ONE (X) 1)"));
+            assertEquals("1\n", Ask(first, "(ONE 2)"));
+            assertEquals("**ERR** ERROR IN EVAL: 'ONE' is not defined\n", Ask(second, "(ONE 2)"));
+        }
+    }
+
+    @Test
+    void StopsARequestThatRunsTooLong() throws IOException
+    {
+        try (SocketChannel channel = SocketChannel.open(framed))
+        {
+            //the timeout is the whole request's, so the forms after the loop get none
+            assertEquals("LOOP\n**ERR** ERROR IN EVAL: timed out after 200 ms\n"
+                    + "**ERR** ERROR IN EVAL: timed out after 200 ms\n",
+                    Ask(channel, "(DEFUN LOOP (N) (COND ((EQ N 0) 0) (T (LOOP (MINUS N 1)))))"
+                            + "(LOOP 1000000000) (PLUS 1 2)"));
+            assertEquals("3\n", Ask(channel, "(PLUS 1 2)"));
+        }
+    }
+
+    @Test
+    void ReplacesAStaleSocket() throws IOException, InterruptedException
+    {
+        Path path = directory.resolve("stale");
+        try (ServerSocketChannel old = ServerSocketChannel.open(StandardProtocolFamily.UNIX))
+        {
+            old.bind(UnixDomainSocketAddress.of(path));
+        }
+        assertTrue(Files.exists(path), "closing a listener leaves its socket file");
+        try (SocketChannel channel = SocketChannel.open(Start(path, true)))
+        {
+            assertEquals("3\n", Ask(channel, "(PLUS 1 2)"));
+        }
+    }
+
+    @Test
+    void RefusesARequestOverTheLimit() throws IOException
+    {
+        AssertRefused(Server.MAX_REQUEST + 1);
+    }
+
+    @Test
+    void RefusesANegativeLength() throws IOException
+    {
+        AssertRefused(-1);
+    }
+
+    @Test
+    void AnswersTheReplProtocol() throws IOException
+    {
+        try (SocketChannel channel = SocketChannel.open(repl))
+        {
+            OutputStream out = Channels.newOutputStream(channel);
+            out.write("(CONS 1 2)\n(CAR 1)\n".getBytes(StandardCharsets.UTF_8));
+            channel.shutdownOutput();
+            String answer = new String(Channels.newInputStream(channel).readAllBytes(), StandardCharsets.UTF_8);
+            assertEquals(">>> (1 . 2)\n>>> **ERR** ERROR IN APPLY: CAR cannot be performed on atom\n>>> ",
+                    answer.replace(System.lineSeparator(), "\n"));
+        }
+    }
+
+    //a length out of bounds is answered, then the connection is closed
+    private static void AssertRefused(int length) throws IOException
+    {
+        try (SocketChannel channel = SocketChannel.open(framed))
+        {
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+            out.writeInt(length);
+            out.flush();
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            assertEquals("**ERR** ERROR IN SERVER: bad request length " + length + "\n", Read(in));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    private static String Ask(SocketChannel channel, String request) throws IOException
+    {
+        byte[] bytes = request.getBytes(StandardCharsets.UTF_8);
+        DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.flush();
+        return Read(new DataInputStream(Channels.newInputStream(channel)));
+    }
+
+    private static String Read(DataInputStream in) throws IOException
+    {
+        byte[] response = new byte[in.readInt()];
+        in.readFully(response);
+        return new String(response, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,60 @@
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * -timeout stops a form that runs too long, on every engine, in compiled code
+ * and under -parallel, and the session goes on to the next form.  Each test
+ * stops its forms at 200 ms, the rest of its time is room for a slow machine
+ */
+@Timeout(value = 20, unit = TimeUnit.SECONDS)
+class TimeoutTest
+{
+    private final static String PROGRAM =
+            "(DEFUN FIB (N) (COND ((LESS N 2) N) (T (PLUS (FIB (MINUS N 1)) (FIB (MINUS N 2))))))\n"
+            + "(FIB 40)\n"
+            + "(PLUS (FIB 40) (FIB 40))\n"
+            + "(FIB 10)\n";
+
+    private final static String EXPECTED = Transcript.Expect("FIB",
+            "**ERR** ERROR IN EVAL: timed out after 200 ms",
+            "**ERR** ERROR IN EVAL: timed out after 200 ms",
+            "55");
+
+    @ParameterizedTest
+    @EnumSource(Engine.class)
+    void StopsLongForms(Engine engine)
+    {
+        assertEquals(EXPECTED, Run(engine, -1, false));
+    }
+
+    //the engines with a JIT tier, compiling on the first call; a compiled
+    //call of the function itself is a jump, so only Poll can stop the loop
+    @ParameterizedTest
+    @EnumSource(value = Engine.class, names = {"TREE", "NODES", "VM"})
+    void StopsLongCompiledLoops(Engine engine)
+    {
+        Interpreter session = Interpreter.Sessions(engine, 1, 0, 0, false, 200).get();
+        assertEquals(Transcript.Expect("LOOP", "**ERR** ERROR IN EVAL: timed out after 200 ms", "3"),
+                Transcript.Of(() -> session, "(DEFUN LOOP (N) (COND ((EQ N 0) 0) (T (LOOP (MINUS N 1)))))\n"
+                        + "(LOOP 1000000000000)\n"
+                        + "(PLUS 1 2)\n", false));
+        assertNotNull(session.dList.GetFunctionDefinition(SExp.Intern("LOOP")).Tier(), "LOOP was not compiled");
+    }
+
+    //without the JIT, whose code evaluates its arguments in order, every
+    //level of FIB forks
+    @ParameterizedTest
+    @EnumSource(Engine.class)
+    void StopsLongParallelForms(Engine engine)
+    {
+        assertEquals(EXPECTED, Run(engine, 0, true));
+    }
+
+    private static String Run(Engine engine, int jitThreshold, boolean parallel)
+    {
+        return Transcript.Of(Interpreter.Sessions(engine, jitThreshold, 0, 0, parallel, 200), PROGRAM, false);
+    }
+}
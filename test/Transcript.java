@@ -0,0 +1,71 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+/**
+ * What a session prints for a program, as main would print it on standard
+ * output, for the tests to compare
+ */
+final class Transcript
+{
+    private Transcript()
+    {
+    }
+
+    /**
+     * Run a program through a new session
+     * @param sessions Makes the session
+     * @param program The forms, as typed on standard input
+     * @param pipelined true to read, evaluate and print on three threads, as
+     * -pipeline does
+     * @return The prompts and results, with the hash codes of printed
+     * objects taken out
+     */
+    static String Of(Supplier<Interpreter> sessions, String program, boolean pipelined)
+    {
+        Interpreter session = sessions.get();
+        Lexer in = new Lexer(new StringReader(program));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, false, StandardCharsets.UTF_8);
+        if (pipelined)
+        {
+            session.PipelinedRepl(in, out);
+        } else
+        {
+            session.Repl(in, out);
+        }
+        return Normalize(bytes.toString(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Run a program through a tree walking session with the default options
+     */
+    static String Of(String program)
+    {
+        return Of(Interpreter.Sessions(Engine.TREE, -1, 0, 0, false, 0), program, false);
+    }
+
+    /**
+     * Get the transcript of a program whose forms print the given lines
+     * @param lines The line printed for each form
+     * @return The prompts and lines
+     */
+    static String Expect(String... lines)
+    {
+        StringBuilder text = new StringBuilder();
+        for (String line : lines)
+        {
+            text.append(">>> ").append(line).append(System.lineSeparator());
+        }
+        return text.append(">>> ").toString();
+    }
+
+    /**
+     * Take the hash codes out of the names Java gives objects that are printed
+     * for want of a better name
+     */
+    static String Normalize(String text)
+    {
+        return text.replaceAll("Cons@[0-9a-f]*", "Cons@");
+    }
+}
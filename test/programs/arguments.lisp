@@ -0,0 +1,8 @@
+(DEFUN FIB (N) (COND ((LESS N 2) N) (T (PLUS (FIB (MINUS N 1)) (FIB (MINUS N 2))))))
+(DEFUN LOOP (N) (COND ((EQ N 0) 0) (T (LOOP (MINUS N 1)))))
+(DEFUN BAD (N) (CAR N))
+(PLUS (FIB 24) (FIB 25))
+(CONS (FIB 10) (CONS (BAD 3) (CONS (UNDEFINED 1) NIL)))
+(CONS (BAD 5) (LOOP 100000000))
+(CONS (FIB 5) (CONS (FIB 6) (QUOTE (7))))
+(PLUS (FIB 28) (FIB 27))
@@ -0,0 +1,80 @@
+(PLUS 2 3)
+(quote (a b c))
+(CONS 1 (QUOTE (2 3)))
+(CAR (QUOTE (A . B)))
+(CDR (QUOTE (A B)))
+(EQ 5 5)
+(EQ (QUOTE a) (QUOTE A))
+(ATOM 5)
+(NULL NIL)
+(NULL ())
+(INT 5)
+(INT (QUOTE X))
+(MINUS 2 10)
+(TIMES 7 6)
+(QUOTIENT 7 2)
+(QUOTIENT 7 0)
+(REMAINDER 7 3)
+(LESS 1 2)
+(GREATER 1 2)
+(DEFUN FACT (N) (COND ((EQ N 0) 1) (T (TIMES N (FACT (MINUS N 1))))))
+(FACT 10)
+(FACT 20)
+(DEFUN . (NOTSOSILLY . ((A . (B . NIL)) . ((COND . ( ( (EQ . (A . (0 . NIL))) . ( (PLUS . (B . (1 . NIL))) . NIL)) . ( ( (EQ . (B . (0 . NIL))) . ( (NOTSOSILLY . ((MINUS2 .(A . (1 . NIL))) . (1 . NIL))) . NIL)) . ( (T . ((NOTSOSILLY . ( (MINUS2 . (A . (1 . NIL))) . 
+                 ( (NOTSOSILLY . (A . ((MINUS2 . (B . (1 . NIL))) . NIL))) . NIL))) . NIL)) . NIL)))) . NIL))))
+(DEFUN MINUS2 (A B) (MINUS A B))
+(NOTSOSILLY 2 2)
+(NOTSOSILLY 3 3)
+X
+(FOO 1)
+(PLUS 1)
+(CAR 5)
+(COND ((EQ 1 2) 3) (T 4))
+(COND ((EQ 1 2) 3))
+(COND (5 3))
+(COND ((QUOTE (A)) 3))
+(DEFUN F (X) (G 1))
+(DEFUN G (Y) X)
+(F 7)
+(DEFUN LEN (L) (COND ((NULL L) 0) (T (PLUS 1 (LEN (CDR L))))))
+(LEN (QUOTE (1 2 3 4 5)))
+(DEFUN APP (A B) (COND ((NULL A) B) (T (CONS (CAR A) (APP (CDR A) B)))))
+(DEFUN REV (L) (COND ((NULL L) NIL) (T (APP (REV (CDR L)) (CONS (CAR L) NIL)))))
+(REV (QUOTE (1 2 3 4)))
+(QUOTE x.y)
+(1 2)
+(F)
+(PLUS (QUOTE A) 1)
+(DEFUN FACT (N) N)
+(FACT 4)
+(EQ (QUOTE (A)) 1)
+()
+(PLUS 2147483647 1)
+abc$
+(DEFUN 5 (X) X)
+(DEFUN H (5) X)
+(ATOM)
+(PLUS 9223372036854775807 1)
+(MINUS -9223372036854775808 1)
+(TIMES 4294967296 4294967296)
+(QUOTIENT -9223372036854775808 -1)
+(MINUS 9223372036854775808 1)
+(FACT 25)
+(EQ 05 5)
+(EQ 100000000000000000000 100000000000000000000)
+(LESS 100000000000000000000 5)
+(REMAINDER -7 2)
++5
+(EQ 5 (QUOTE A))
+X
+(DEFUN DUP (X X) X)
+(DUP 1 2)
+(DEFUN QT (X) (CONS (QUOTE X) X))
+(QT 3)
+(DEFUN CF (X) (COND ((EQ X 1) (QUOTE ONE)) (T X)))
+(CF 1)
+(CF 2)
+(DEFUN BADC (X) (COND X))
+(BADC 1)
+(DEFUN DEEP (N) (COND ((EQ N 0) 0) (T (PLUS 1 (DEEP (MINUS N 1))))))
+(DEEP 300)
@@ -0,0 +1,16 @@
+(QUOTE (A . B))
+(QUOTE (A B . C))
+(QUOTE (A . B C))
+(QUOTE (A B . C D))
+(QUOTE ( . A))
+(QUOTE (A . ))
+(QUOTE (A . (B . (C . NIL))))
+(QUOTE ((A) (B (C)) () . D))
+(QUOTE (1 2 3 99999999999999999999999 -5 +7))
+)
+.
+(QUOTE (A.B . C.D))
+(CONS (QUOTE A) (QUOTE (B . C)))
+(QUOTE A B)
+()
+(QUOTE (A . (B C)))
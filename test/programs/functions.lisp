@@ -0,0 +1,18 @@
+(DEFUN SQ (X) (TIMES X X))
+(DEFUN SUMSQ (N) (COND ((EQ N 0) 0) (T (PLUS (SQ N) (SUMSQ (MINUS N 1))))))
+(SUMSQ 50)
+(DEFUN SQ (X) (PLUS X X))
+(SUMSQ 50)
+(DEFUN BAD (N) (COND ((EQ N 0) (BAD)) (T (BAD (MINUS N 1)))))
+(BAD 5)
+(DEFUN FREE (N) (COND ((EQ N 0) Y) (T (FREE (MINUS N 1)))))
+(DEFUN OUTER (Y) (FREE 5))
+(OUTER 42)
+(DEFUN Q (L) (COND ((NULL L) (QUOTE (A B))) (T (CONS (CAR L) (Q (CDR L))))))
+(Q (QUOTE (1 2 3)))
+(DEFUN BIG (N) (COND ((EQ N 0) 1) (T (TIMES 1000000000 (BIG (MINUS N 1))))))
+(BIG 5)
+(DEFUN E (N) (COND ((EQ N 0) (CAR 5)) (T (E (MINUS N 1)))))
+(E 3)
+(DEFUN DV (N) (COND ((EQ N 0) (QUOTIENT 1 0)) (T (DV (REMAINDER (MINUS N 1) 100)))))
+(DV 3)
@@ -0,0 +1,55 @@
+(DEFUN W1 (X) (COND ((EQ X 1) . 2) (T 3)))
+(W1 1)
+(DEFUN W2 (X) (QUOTE . X))
+(W2 1)
+(DEFUN W3 (X) (PLUS X . 1))
+(W3 1)
+(DEFUN W4 (X) ((A) X))
+(W4 1)
+(DEFUN W5 (X) (PLUS X 1 2))
+(W5 1)
+(DEFUN W6 (X) (PLUS (UNDEF X) 1 2))
+(W6 1)
+(DEFUN W7 (X) (W6))
+(W7 1)
+(DEFUN W8 (X) (W1 1 2))
+(W8 1)
+(DEFUN W9 (X) (COND ((CONS X X) 1)))
+(W9 1)
+(DEFUN W10 (X) (COND ((EQ X 2) 1)))
+(W10 1)
+(DEFUN W11 (X) (Y$ X))
+(W11 1)
+(DEFUN W12 (X) (PLUS X Y$))
+(W12 1)
+(DEFUN W13 (X) (QUOTE 1 2))
+(W13 1)
+(DEFUN W14 (X) (DEFUN A (B) B))
+(W14 1)
+(DEFUN W15 (X) (COND))
+(W15 1)
+(DEFUN W16 (X) (COND ((EQ X 1) 5 6)))
+(W16 1)
+(DEFUN W17 (X) (5 X))
+(W17 1)
+(DEFUN W18 (X) (COND (X 1) (T 2)))
+(W18 T)
+(W18 NIL)
+(W18 (QUOTE (A)))
+(DEFUN W19 (X) (ATOM X X))
+(W19 1)
+(DEFUN W20 (X) (CAR X))
+(W20 5)
+(W20 (QUOTE (1 2)))
+(DEFUN FIB (N) (COND ((LESS N 2) N) (T (PLUS (FIB (MINUS N 1)) (FIB (MINUS N 2))))))
+(FIB 15)
+(COND ((EQ 1 1) (QUOTE A)))
+(W18)
+(COND ((EQ 1 1) . 2))
+(COND (T 1) . X)
+(COND (T . 1))
+(QUOTE . X)
+(QUOTE 1 . 2)
+(PLUS 1 . 1)
+(DEFUN W21 (X) (W21 X . 1))
+(W21 1)
@@ -0,0 +1,17 @@
+(DEFUN F (X) (G 1))
+(DEFUN G (Y) (PLUS X Y))
+(F 7)
+(DEFUN H (X) (COND ((EQ X 0) (QUOTE . 5)) (T (H (MINUS X 1)))))
+(DEFUN K (X) (COND ((EQ X 0) (W1 1)) (T (K (MINUS X 1)))))
+(DEFUN W1 (X) (COND ((EQ X 1) . 2) (T Z)))
+(DEFUN Z2 (Z) (K 3))
+(Z2 9)
+(DEFUN SQ (X) (TIMES X X))
+(DEFUN SUMSQ (N) (COND ((EQ N 0) 0) (T (PLUS (SQ N) (SUMSQ (MINUS N 1))))))
+(SUMSQ 1100)
+(SUMSQ 1100)
+(DEFUN SQ (X) (PLUS X X))
+(SUMSQ 1100)
+(SQ 7)
+(DEFUN SUMSQ (N) (QUOTE GONE))
+(SUMSQ 1100)
@@ -0,0 +1,11 @@
+(DEFUN LOOP (N ACC) (COND ((EQ N 0) ACC) (T (LOOP (MINUS N 1) (PLUS ACC 1)))))
+(LOOP 100000 0)
+(DEFUN EV (N) (COND ((EQ N 0) T) (T (OD (MINUS N 1)))))
+(DEFUN OD (N) (COND ((EQ N 0) NIL) (T (EV (MINUS N 1)))))
+(EV 100001)
+(DEFUN CNT (L ACC) (COND ((NULL L) ACC) (T (CNT (CDR L) (PLUS ACC 1)))))
+(DEFUN MK (N L) (COND ((EQ N 0) L) (T (MK (MINUS N 1) (CONS N L)))))
+(CNT (MK 100000 NIL) 0)
+(DEFUN FR (N) (COND ((EQ N 0) Y) (T (FR (MINUS N 1)))))
+(DEFUN OUT (Y) (FR 100000))
+(OUT 9)